@@ -0,0 +1,130 @@
+package ee.forgr.capacitor.uploader;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class FileMetadataResolverTest {
+
+    private Context context;
+    private FileMetadataResolver resolver;
+    private File workDir;
+    private final List<Uri> inserted = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        resolver = new FileMetadataResolver(context);
+        workDir = new File(context.getCacheDir(), "metadata-resolver-test");
+        assertTrue(workDir.isDirectory() || workDir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        for (Uri uri : inserted) {
+            context.getContentResolver().delete(uri, null, null);
+        }
+        File[] files = workDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+    }
+
+    private static void write(File file, int length, boolean append) throws IOException {
+        try (OutputStream output = new FileOutputStream(file, append)) {
+            output.write(new byte[length]);
+        }
+    }
+
+    @Test
+    public void plainFileSizeFollowsChanges() throws Exception {
+        File file = new File(workDir, "working.db");
+        write(file, 10, false);
+        assertEquals(10, resolver.resolve(file.getAbsolutePath()).size);
+
+        write(file, 90, true);
+        assertEquals(100, resolver.resolve(file.getAbsolutePath()).size);
+        assertEquals(100, resolver.resolve("file://" + file.getAbsolutePath()).size);
+
+        write(file, 5, false);
+        assertEquals(5, resolver.resolve(file.getAbsolutePath()).size);
+    }
+
+    @Test
+    public void plainFileNameAndMimeType() throws Exception {
+        File file = new File(workDir, "photo.jpg");
+        write(file, 1, false);
+        FileMetadataResolver.FileMetadata metadata = resolver.resolve("file://" + file.getAbsolutePath());
+        assertEquals("photo.jpg", metadata.displayName);
+        assertEquals("image/jpeg", metadata.mimeType);
+
+        FileMetadataResolver.FileMetadata missing = resolver.resolve(new File(workDir, "missing.bin").getAbsolutePath());
+        assertFalse(missing.hasSize());
+    }
+
+    @Test
+    public void failedQueriesAreNotCached() {
+        String uri = "content://ee.forgr.capacitor.uploader.missing/items/42";
+        FileMetadataResolver.FileMetadata first = resolver.resolve(uri);
+        assertEquals("42", first.displayName);
+        assertFalse(first.hasSize());
+        // A later lookup asks the provider again instead of reusing the fallback.
+        assertNotSame(first, resolver.resolve(uri));
+    }
+
+    @Test
+    public void mediaStoreUrisAreResolvedInOneBatch() throws Exception {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q);
+        ContentResolver contentResolver = context.getContentResolver();
+        List<String> uris = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.MediaColumns.DISPLAY_NAME, "resolver-test-" + i + ".txt");
+            values.put(MediaStore.MediaColumns.MIME_TYPE, "text/plain");
+            Uri uri = contentResolver.insert(MediaStore.Downloads.EXTERNAL_CONTENT_URI, values);
+            assertNotNull(uri);
+            inserted.add(uri);
+            try (OutputStream output = contentResolver.openOutputStream(uri)) {
+                output.write(new byte[100 * (i + 1)]);
+            }
+            uris.add(uri.toString());
+        }
+
+        Map<String, FileMetadataResolver.FileMetadata> metadata = resolver.resolveAll(uris);
+        assertEquals(3, metadata.size());
+        for (int i = 0; i < 3; i++) {
+            FileMetadataResolver.FileMetadata item = metadata.get(uris.get(i));
+            assertNotNull(item);
+            assertTrue(item.displayName, item.displayName.startsWith("resolver-test-" + i));
+            assertEquals(100 * (i + 1), item.size);
+            assertEquals("text/plain", item.mimeType);
+        }
+
+        // Served from the cache until invalidated.
+        assertSame(metadata.get(uris.get(0)), resolver.resolve(uris.get(0)));
+        resolver.invalidate(uris.get(0));
+        assertNotSame(metadata.get(uris.get(0)), resolver.resolve(uris.get(0)));
+    }
+}
@@ -0,0 +1,215 @@
+package ee.forgr.capacitor.uploader;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.Headers;
+import okhttp3.MultipartReader;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+/**
+ * Stand-in upload server behaviour: latency, throttling, 5xx answers and connection resets, plus
+ * validation of every request body that reaches {@link #dispatch}.
+ *
+ * Bodies are checked against the files registered with {@link #expect}. Requests whose body was
+ * truncated by {@code MockWebServer.setBodyLimit} are checked by size and part headers only.
+ */
+class ScenarioDispatcher extends Dispatcher {
+
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=([^;]+)");
+    private static final Pattern FILENAME = Pattern.compile("filename=\"([^\"]*)\"");
+
+    static class ExpectedFile {
+
+        final long size;
+        final long crc;
+
+        ExpectedFile(long size, long crc) {
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+
+    long headersDelayMs = 0;
+    long throttleBytesPerSecond = 0;
+    int failWithStatus = 0;
+    int resetDuringBodyFirst = 0;
+    int resetAfterRequestFirst = 0;
+
+    private final Map<String, ExpectedFile> expectedFiles = new ConcurrentHashMap<>();
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+    private final AtomicInteger peeks = new AtomicInteger();
+    private final AtomicInteger dispatches = new AtomicInteger();
+    private final AtomicInteger validated = new AtomicInteger();
+
+    void expect(String fileName, long size, long crc) {
+        expectedFiles.put(fileName, new ExpectedFile(size, crc));
+    }
+
+    List<String> getErrors() {
+        return errors;
+    }
+
+    int getValidatedCount() {
+        return validated.get();
+    }
+
+    @Override
+    public MockResponse peek() {
+        // MockWebServer reads the request body using the peeked response's throttle and socket policy.
+        MockResponse policy = new MockResponse();
+        if (throttleBytesPerSecond > 0) {
+            policy.throttleBody(throttleBytesPerSecond / 10, 100, TimeUnit.MILLISECONDS);
+        }
+        if (peeks.getAndIncrement() < resetDuringBodyFirst) {
+            policy.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_REQUEST_BODY);
+        }
+        return policy;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        MockResponse response = new MockResponse();
+        if (headersDelayMs > 0) {
+            response.setHeadersDelay(headersDelayMs, TimeUnit.MILLISECONDS);
+        }
+        if (dispatches.getAndIncrement() < resetAfterRequestFirst) {
+            return response.setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+        }
+        if (failWithStatus != 0) {
+            return response.setResponseCode(failWithStatus);
+        }
+
+        try {
+            validate(request);
+        } catch (Exception e) {
+            errors.add(request.getPath() + ": " + e.getMessage());
+        }
+        return response.setResponseCode(200).setBody("{}");
+    }
+
+    private void validate(RecordedRequest request) throws IOException {
+        String contentType = request.getHeader("Content-Type");
+        if (contentType != null && contentType.startsWith("multipart/form-data")) {
+            validateMultipart(request, contentType);
+        } else {
+            validateBinary(request);
+        }
+        validated.incrementAndGet();
+    }
+
+    private void validateBinary(RecordedRequest request) throws IOException {
+        String fileName = request.getHeader("X-File-Name");
+        if (fileName == null) {
+            // Streaming uploads have no registered file; only the size is known to the test.
+            return;
+        }
+        ExpectedFile expected = requireExpected(fileName);
+        if (request.getBodySize() != expected.size) {
+            throw new IOException("binary body is " + request.getBodySize() + " bytes, expected " + expected.size);
+        }
+        Buffer body = request.getBody();
+        if (body.size() == expected.size && UploadLoadHarness.crc(body.clone()) != expected.crc) {
+            throw new IOException("binary body content mismatch for " + fileName);
+        }
+    }
+
+    private void validateMultipart(RecordedRequest request, String contentType) throws IOException {
+        Matcher boundaryMatcher = BOUNDARY.matcher(contentType);
+        if (!boundaryMatcher.find()) {
+            throw new IOException("missing boundary in " + contentType);
+        }
+        String boundary = boundaryMatcher.group(1);
+        Buffer body = request.getBody();
+
+        if (body.size() < request.getBodySize()) {
+            validateTruncatedMultipart(request, body, boundary);
+            return;
+        }
+
+        int fileParts = 0;
+        try (MultipartReader reader = new MultipartReader(body.clone(), boundary)) {
+            MultipartReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                try (MultipartReader.Part current = part) {
+                    Headers headers = current.headers();
+                    String disposition = headers.get("Content-Disposition");
+                    if (disposition == null || !disposition.startsWith("form-data; name=\"")) {
+                        throw new IOException("bad Content-Disposition: " + disposition);
+                    }
+                    Matcher fileNameMatcher = FILENAME.matcher(disposition);
+                    if (!fileNameMatcher.find()) {
+                        continue;
+                    }
+                    if (headers.get("Content-Type") == null) {
+                        throw new IOException("file part without Content-Type");
+                    }
+                    ExpectedFile expected = requireExpected(fileNameMatcher.group(1));
+                    Buffer content = new Buffer();
+                    current.body().readAll(content);
+                    if (content.size() != expected.size || UploadLoadHarness.crc(content) != expected.crc) {
+                        throw new IOException("file part content mismatch for " + fileNameMatcher.group(1));
+                    }
+                    fileParts++;
+                }
+            }
+        }
+        if (fileParts == 0) {
+            throw new IOException("multipart body has no file part");
+        }
+    }
+
+    /**
+     * Walks the part headers in the retained prefix up to the first file part, then checks that the
+     * declared body size is exactly the form fields, that part's header, the file content and the
+     * closing delimiter.
+     */
+    private void validateTruncatedMultipart(RecordedRequest request, Buffer body, String boundary) throws IOException {
+        String prefix = body.clone().readUtf8(Math.min(body.size(), 4096));
+        String delimiter = "--" + boundary + "\r\n";
+        int partStart = 0;
+        while (true) {
+            if (!prefix.startsWith(delimiter, partStart)) {
+                throw new IOException("part at " + partStart + " does not start with the boundary delimiter");
+            }
+            int headerEnd = prefix.indexOf("\r\n\r\n", partStart);
+            if (headerEnd == -1) {
+                throw new IOException("no file part header in the retained body");
+            }
+            Matcher fileNameMatcher = FILENAME.matcher(prefix.substring(partStart, headerEnd));
+            if (fileNameMatcher.find()) {
+                ExpectedFile expected = requireExpected(fileNameMatcher.group(1));
+                long fileOffset = prefix.substring(0, headerEnd + 4).getBytes("UTF-8").length;
+                long expectedSize = fileOffset + expected.size + 2 + ("--" + boundary + "--\r\n").length();
+                if (request.getBodySize() != expectedSize) {
+                    throw new IOException("multipart body is " + request.getBodySize() + " bytes, expected " + expectedSize);
+                }
+                return;
+            }
+            // A form field: skip to the delimiter that follows its value.
+            int next = prefix.indexOf("\r\n" + delimiter, headerEnd + 4);
+            if (next == -1) {
+                throw new IOException("unterminated form field in the retained body");
+            }
+            partStart = next + 2;
+        }
+    }
+
+    private ExpectedFile requireExpected(String fileName) throws IOException {
+        ExpectedFile expected = expectedFiles.get(fileName);
+        if (expected == null) {
+            throw new IOException("unexpected file " + fileName);
+        }
+        return expected;
+    }
+}
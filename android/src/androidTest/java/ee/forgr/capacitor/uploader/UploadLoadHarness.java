@@ -0,0 +1,322 @@
+package ee.forgr.capacitor.uploader;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import net.gotev.uploadservice.data.UploadInfo;
+import net.gotev.uploadservice.exceptions.UploadError;
+import net.gotev.uploadservice.network.ServerResponse;
+import net.gotev.uploadservice.observer.request.RequestObserverDelegate;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+/**
+ * Drives {@link Uploader} against an embedded {@link MockWebServer} and records outcomes plus
+ * heap, native heap and staged-body disk high-water marks while uploads run.
+ */
+class UploadLoadHarness implements Closeable {
+
+    static final String TAG = "UploaderLoadTest";
+
+    private static final String CHANNEL_ID = "ee.forgr.capacitor.uploader.notification_channel_id";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    static class Metrics {
+
+        final long bytes;
+        final long elapsedMs;
+        final long heapHighWater;
+        final long nativeHeapHighWater;
+        final long diskHighWater;
+
+        Metrics(long bytes, long elapsedMs, long heapHighWater, long nativeHeapHighWater, long diskHighWater) {
+            this.bytes = bytes;
+            this.elapsedMs = elapsedMs;
+            this.heapHighWater = heapHighWater;
+            this.nativeHeapHighWater = nativeHeapHighWater;
+            this.diskHighWater = diskHighWater;
+        }
+
+        double megabytesPerSecond() {
+            return elapsedMs == 0 ? 0 : (bytes / (1024.0 * 1024.0)) / (elapsedMs / 1000.0);
+        }
+    }
+
+    final Context context;
+    final Uploader uploader;
+    final MockWebServer server;
+    final ScenarioDispatcher dispatcher = new ScenarioDispatcher();
+
+    private final File workDir;
+    private final Set<String> tracked = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> successes = new ConcurrentHashMap<>();
+    private final Map<String, Throwable> failures = new ConcurrentHashMap<>();
+    private volatile CountDownLatch pending = new CountDownLatch(0);
+
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong heapHighWater = new AtomicLong();
+    private final AtomicLong nativeHeapHighWater = new AtomicLong();
+    private final AtomicLong diskHighWater = new AtomicLong();
+    private long startedAt;
+
+    UploadLoadHarness(long bodyLimit) throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext().getApplicationContext();
+        createNotificationChannel();
+        uploader = new Uploader(context);
+
+        server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.setBodyLimit(bodyLimit);
+        server.start();
+
+        workDir = new File(context.getFilesDir(), "uploader-load-test");
+        if (!workDir.isDirectory() && !workDir.mkdirs()) {
+            throw new IOException("Cannot create " + workDir);
+        }
+
+        uploader.setRequestObserverDelegate(
+            new RequestObserverDelegate() {
+                @Override
+                public void onProgress(Context context, UploadInfo uploadInfo) {}
+
+                @Override
+                public void onSuccess(Context context, UploadInfo uploadInfo, ServerResponse serverResponse) {
+                    if (tracked.contains(uploadInfo.getUploadId())) {
+                        successes.put(uploadInfo.getUploadId(), serverResponse.getCode());
+                    }
+                }
+
+                @Override
+                public void onError(Context context, UploadInfo uploadInfo, Throwable exception) {
+                    if (tracked.contains(uploadInfo.getUploadId())) {
+                        failures.put(uploadInfo.getUploadId(), exception);
+                    }
+                }
+
+                @Override
+                public void onCompleted(Context context, UploadInfo uploadInfo) {
+                    if (tracked.remove(uploadInfo.getUploadId())) {
+                        pending.countDown();
+                    }
+                }
+
+                @Override
+                public void onCompletedWhileNotObserving() {}
+            }
+        );
+    }
+
+    private void createNotificationChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID, "Uploader load test", NotificationManager.IMPORTANCE_LOW));
+        }
+    }
+
+    String url(String path) {
+        return server.url(path).toString();
+    }
+
+    /**
+     * Writes {@code size} deterministic pseudo-random bytes and registers the file with the dispatcher.
+     */
+    File createFile(String name, long size) throws IOException {
+        File file = new File(workDir, name);
+        Random random = new Random(name.hashCode());
+        byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+        CRC32 crc = new CRC32();
+        try (OutputStream output = new FileOutputStream(file)) {
+            long remaining = size;
+            while (remaining > 0) {
+                random.nextBytes(buffer);
+                int length = (int) Math.min(buffer.length, remaining);
+                crc.update(buffer, 0, length);
+                output.write(buffer, 0, length);
+                remaining -= length;
+            }
+        }
+        dispatcher.expect(name, size, crc.getValue());
+        return file;
+    }
+
+    List<File> createFiles(String prefix, int count, long size) throws IOException {
+        List<File> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            files.add(createFile(prefix + "-" + i + ".bin", size));
+        }
+        return files;
+    }
+
+    /**
+     * Starts one upload per file, all at once, and begins sampling resource usage.
+     */
+    List<String> startUploads(List<File> files, String uploadType, int maxRetries) throws Exception {
+        pending = new CountDownLatch(files.size());
+        startSampling();
+
+        List<String> ids = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            List<Uploader.UploadFile> parts = new ArrayList<>(1);
+            Map<String, String> headers = new HashMap<>();
+            Map<String, String> parameters = new HashMap<>();
+            String method;
+            if ("multipart".equals(uploadType)) {
+                parts.add(new Uploader.UploadFile(file.getAbsolutePath(), "file", "application/octet-stream"));
+                parameters.put("index", String.valueOf(i));
+                method = "POST";
+            } else {
+                parts.add(new Uploader.UploadFile(file.getAbsolutePath(), null, "application/octet-stream"));
+                headers.put("X-File-Name", file.getName());
+                method = "PUT";
+            }
+
+            String uploadId = UUID.randomUUID().toString();
+            tracked.add(uploadId);
+            uploader.startUpload(parts, url("/upload/" + i), headers, parameters, method, "Load test", maxRetries, uploadType, uploadId);
+            ids.add(uploadId);
+        }
+        return ids;
+    }
+
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return pending.await(timeout, unit);
+    }
+
+    int successCount() {
+        return successes.size();
+    }
+
+    Map<String, Integer> getSuccesses() {
+        return successes;
+    }
+
+    Map<String, Throwable> getFailures() {
+        return failures;
+    }
+
+    static int statusCodeOf(Throwable exception) {
+        if (exception instanceof UploadError) {
+            return ((UploadError) exception).getServerResponse().getCode();
+        }
+        return -1;
+    }
+
+    void startSampling() {
+        startedAt = SystemClock.elapsedRealtime();
+        sampler.scheduleWithFixedDelay(this::sample, 0, 50, TimeUnit.MILLISECONDS);
+    }
+
+    private void sample() {
+        Runtime runtime = Runtime.getRuntime();
+        raise(heapHighWater, runtime.totalMemory() - runtime.freeMemory());
+        raise(nativeHeapHighWater, Debug.getNativeHeapAllocatedSize());
+        raise(diskHighWater, stagedBytes());
+    }
+
+    private static void raise(AtomicLong highWater, long value) {
+        long current;
+        while (value > (current = highWater.get())) {
+            if (highWater.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Total size of the multipart bodies and stream spill files currently staged in the cache dir.
+     */
+    long stagedBytes() {
+        long total = 0;
+        File[] staged = context.getCacheDir().listFiles((dir, name) -> name.startsWith("upload-"));
+        if (staged != null) {
+            for (File file : staged) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    int stagedFileCount() {
+        File[] staged = context.getCacheDir().listFiles((dir, name) -> name.startsWith("upload-"));
+        return staged == null ? 0 : staged.length;
+    }
+
+    Metrics finish(String label, long bytes) {
+        sampler.shutdownNow();
+        sample();
+        Metrics metrics = new Metrics(
+            bytes,
+            SystemClock.elapsedRealtime() - startedAt,
+            heapHighWater.get(),
+            nativeHeapHighWater.get(),
+            diskHighWater.get()
+        );
+        Log.i(
+            TAG,
+            String.format(
+                Locale.US,
+                "%s: %d bytes in %d ms (%.2f MiB/s), heap hwm %d KiB, native hwm %d KiB, staged disk hwm %d KiB, requests %d",
+                label,
+                metrics.bytes,
+                metrics.elapsedMs,
+                metrics.megabytesPerSecond(),
+                metrics.heapHighWater / 1024,
+                metrics.nativeHeapHighWater / 1024,
+                metrics.diskHighWater / 1024,
+                server.getRequestCount()
+            )
+        );
+        return metrics;
+    }
+
+    static long crc(Buffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[WRITE_BUFFER_SIZE];
+        int read;
+        while ((read = buffer.read(chunk)) != -1) {
+            crc.update(chunk, 0, read);
+        }
+        return crc.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sampler.shutdownNow();
+        uploader.destroy();
+        server.shutdown();
+        File[] files = workDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+    }
+}
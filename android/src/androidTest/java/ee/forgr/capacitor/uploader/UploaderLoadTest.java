@@ -0,0 +1,261 @@
+package ee.forgr.capacitor.uploader;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import android.os.Bundle;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * End-to-end upload scenarios against an embedded server. Throughput and high-water marks are
+ * logged under the {@code UploaderLoadTest} tag.
+ *
+ * The 1 GB cases need about 3 GB of free storage and are skipped unless the runner is started with
+ * {@code -e uploaderLoadTest.largeFiles true}.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class UploaderLoadTest {
+
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+    private static final long GB = 1024 * MB;
+
+    // Bodies above this size are only kept partially in memory by the server and checked by size.
+    private static final long SERVER_BODY_LIMIT = 64 * KB;
+
+    private UploadLoadHarness harness;
+
+    @Before
+    public void setUp() throws Exception {
+        harness = new UploadLoadHarness(SERVER_BODY_LIMIT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        harness.close();
+    }
+
+    private static boolean largeFilesEnabled() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        return Boolean.parseBoolean(arguments.getString("uploaderLoadTest.largeFiles", "false"));
+    }
+
+    private UploadLoadHarness.Metrics run(String label, List<File> files, String uploadType, int maxRetries, long timeoutMinutes)
+        throws Exception {
+        long bytes = 0;
+        for (File file : files) {
+            bytes += file.length();
+        }
+        harness.startUploads(files, uploadType, maxRetries);
+        assertTrue(label + " did not finish in time", harness.await(timeoutMinutes, TimeUnit.MINUTES));
+        return harness.finish(label, bytes);
+    }
+
+    private void assertAllSucceeded(int expected) {
+        assertEquals("failures: " + harness.getFailures(), 0, harness.getFailures().size());
+        assertEquals(expected, harness.successCount());
+        assertEquals("invalid bodies: " + harness.dispatcher.getErrors(), 0, harness.dispatcher.getErrors().size());
+        assertEquals(expected, harness.dispatcher.getValidatedCount());
+        assertEquals("staged multipart bodies were not cleaned up", 0, harness.stagedFileCount());
+    }
+
+    @Test
+    public void binarySingleSmallFile() throws Exception {
+        run("binary 1 x 1 KiB", harness.createFiles("b1k", 1, KB), "binary", 0, 1);
+        assertAllSucceeded(1);
+    }
+
+    @Test
+    public void multipartSingleSmallFile() throws Exception {
+        run("multipart 1 x 1 KiB", harness.createFiles("m1k", 1, KB), "multipart", 0, 1);
+        assertAllSucceeded(1);
+    }
+
+    @Test
+    public void multipartSingleLargeFile() throws Exception {
+        UploadLoadHarness.Metrics metrics = run("multipart 1 x 100 MiB", harness.createFiles("m100m", 1, 100 * MB), "multipart", 0, 5);
+        assertAllSucceeded(1);
+        // The body is staged on disk and streamed, never held in memory.
+        assertTrue("heap high-water " + metrics.heapHighWater, metrics.heapHighWater < 64 * MB);
+        assertTrue("staged disk high-water " + metrics.diskHighWater, metrics.diskHighWater <= 100 * MB + 4 * KB);
+    }
+
+    @Test
+    public void binarySingleHugeFile() throws Exception {
+        assumeTrue(largeFilesEnabled());
+        UploadLoadHarness.Metrics metrics = run("binary 1 x 1 GiB", harness.createFiles("b1g", 1, GB), "binary", 0, 20);
+        assertAllSucceeded(1);
+        assertTrue("heap high-water " + metrics.heapHighWater, metrics.heapHighWater < 64 * MB);
+        assertEquals("binary uploads must not stage a copy", 0, metrics.diskHighWater);
+    }
+
+    @Test
+    public void multipartSingleHugeFile() throws Exception {
+        assumeTrue(largeFilesEnabled());
+        UploadLoadHarness.Metrics metrics = run("multipart 1 x 1 GiB", harness.createFiles("m1g", 1, GB), "multipart", 0, 30);
+        assertAllSucceeded(1);
+        assertTrue("heap high-water " + metrics.heapHighWater, metrics.heapHighWater < 64 * MB);
+    }
+
+    @Test
+    public void binaryHundredConcurrent() throws Exception {
+        run("binary 100 x 1 MiB", harness.createFiles("b100", 100, MB), "binary", 0, 5);
+        assertAllSucceeded(100);
+    }
+
+    @Test
+    public void multipartHundredConcurrent() throws Exception {
+        UploadLoadHarness.Metrics metrics = run("multipart 100 x 1 MiB", harness.createFiles("m100", 100, MB), "multipart", 0, 5);
+        assertAllSucceeded(100);
+        assertTrue("staged disk high-water " + metrics.diskHighWater, metrics.diskHighWater <= 100 * (MB + 4 * KB));
+    }
+
+    @Test
+    public void multipartThousandConcurrent() throws Exception {
+        run("multipart 1000 x 1 KiB", harness.createFiles("m1000", 1000, KB), "multipart", 0, 10);
+        assertAllSucceeded(1000);
+    }
+
+    @Test
+    public void binaryThousandConcurrent() throws Exception {
+        run("binary 1000 x 1 KiB", harness.createFiles("b1000", 1000, KB), "binary", 0, 10);
+        assertAllSucceeded(1000);
+    }
+
+    @Test
+    public void latencyAndThrottling() throws Exception {
+        harness.dispatcher.headersDelayMs = 200;
+        harness.dispatcher.throttleBytesPerSecond = 512 * KB;
+        run("multipart 100 x 64 KiB, 200 ms latency, 512 KiB/s", harness.createFiles("slow", 100, 64 * KB), "multipart", 0, 10);
+        assertAllSucceeded(100);
+    }
+
+    @Test
+    public void serverErrorsAreReported() throws Exception {
+        harness.dispatcher.failWithStatus = 503;
+        run("multipart 100 x 1 KiB, 503", harness.createFiles("e503", 100, KB), "multipart", 0, 5);
+        assertEquals(0, harness.successCount());
+        assertEquals(100, harness.getFailures().size());
+        for (Throwable failure : harness.getFailures().values()) {
+            assertEquals(503, UploadLoadHarness.statusCodeOf(failure));
+        }
+        assertEquals("staged multipart bodies were not cleaned up", 0, harness.stagedFileCount());
+    }
+
+    @Test
+    public void connectionResetsAreRetried() throws Exception {
+        harness.dispatcher.resetDuringBodyFirst = 30;
+        run("binary 100 x 64 KiB, 30 resets", harness.createFiles("reset", 100, 64 * KB), "binary", 3, 10);
+        assertAllSucceeded(100);
+    }
+
+    @Test
+    public void streamingUploadStaysWithinBuffer() throws Exception {
+        long maxBuffered = MB;
+        RecordedStream result = stream(32 * MB, maxBuffered, false, 0);
+        assertNull(result.error.get());
+        assertEquals(200, result.statusCode.get());
+        assertEquals(32 * MB, result.bytesSent.get());
+        assertTrue("buffered " + result.maxBuffered.get(), result.maxBuffered.get() <= maxBuffered);
+
+        RecordedRequest request = harness.server.takeRequest();
+        assertEquals(32 * MB, request.getBodySize());
+        assertFalse("expected chunked transfer encoding", request.getChunkSizes().isEmpty());
+    }
+
+    @Test
+    public void streamingUploadReplaysSpillAfterReset() throws Exception {
+        harness.dispatcher.resetAfterRequestFirst = 1;
+        RecordedStream result = stream(4 * MB, MB, true, 1);
+        assertNull(result.error.get());
+        assertEquals(200, result.statusCode.get());
+        assertEquals(4 * MB, result.bytesSent.get());
+        assertEquals(2, harness.server.getRequestCount());
+        assertEquals("spill file was not cleaned up", 0, harness.stagedFileCount());
+    }
+
+    private static class RecordedStream {
+
+        final AtomicInteger statusCode = new AtomicInteger();
+        final AtomicLong bytesSent = new AtomicLong();
+        final AtomicLong maxBuffered = new AtomicLong();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+    }
+
+    private RecordedStream stream(long size, long maxBuffered, boolean spill, int maxRetries) throws Exception {
+        final RecordedStream result = new RecordedStream();
+        final CountDownLatch done = new CountDownLatch(1);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/octet-stream");
+
+        harness.startSampling();
+        String id = harness.uploader.openUploadStream(
+            harness.url("/stream"),
+            "POST",
+            headers,
+            maxBuffered,
+            maxRetries,
+            spill,
+            size,
+            new UploadStream.Listener() {
+                @Override
+                public void onFinished(String streamId, int statusCode, long bytesSent) {
+                    result.statusCode.set(statusCode);
+                    result.bytesSent.set(bytesSent);
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailed(String streamId, int statusCode, Exception exception) {
+                    result.statusCode.set(statusCode);
+                    result.error.set(exception);
+                    done.countDown();
+                }
+            }
+        );
+
+        byte[] chunk = new byte[(int) (64 * KB)];
+        for (long written = 0; written < size; written += chunk.length) {
+            final CountDownLatch accepted = new CountDownLatch(1);
+            harness.uploader.writeUploadStream(
+                id,
+                chunk.clone(),
+                new UploadStream.WriteCallback() {
+                    @Override
+                    public void onAccepted(long bufferedBytes, long availableBytes) {
+                        result.maxBuffered.accumulateAndGet(bufferedBytes, Math::max);
+                        accepted.countDown();
+                    }
+
+                    @Override
+                    public void onError(Exception exception) {
+                        result.error.set(exception);
+                        accepted.countDown();
+                    }
+                }
+            );
+            assertTrue(accepted.await(1, TimeUnit.MINUTES));
+        }
+        harness.uploader.finishUploadStream(id);
+        assertTrue(done.await(2, TimeUnit.MINUTES));
+        harness.finish("stream " + (size / MB) + " MiB" + (spill ? " with spill" : ""), size);
+        return result;
+    }
+}
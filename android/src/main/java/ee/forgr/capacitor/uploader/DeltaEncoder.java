@@ -0,0 +1,179 @@
+package ee.forgr.capacitor.uploader;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Streams a new file version against the {@link DeltaSignature} of the previous one and writes a
+ * patch made of block references and literal bytes, rsync style.
+ *
+ * Patch layout (big-endian): {@code "CUDP"}, version byte {@code 1}, block size (int), base file
+ * length (long), base file MD5 (16 bytes), then a sequence of operations:
+ * <ul>
+ *   <li>{@code 0x01} COPY: first block index (int), block count (int), copied from the base file</li>
+ *   <li>{@code 0x02} LITERAL: length (int) followed by that many bytes</li>
+ *   <li>{@code 0x00} END: new file length (long) and new file MD5 (16 bytes)</li>
+ * </ul>
+ * The source is read once with a bounded buffer, so memory use does not depend on the file size.
+ */
+public class DeltaEncoder {
+
+    static final byte[] MAGIC = new byte[] { 'C', 'U', 'D', 'P' };
+    static final int VERSION = 1;
+
+    static final int OP_END = 0x00;
+    static final int OP_COPY = 0x01;
+    static final int OP_LITERAL = 0x02;
+
+    private static final int MAX_LITERAL = 64 * 1024;
+    private static final int MIN_BUFFER_SIZE = 256 * 1024;
+
+    public static class Result {
+
+        /** Signature of the new version, to be used as the base of the next delta. */
+        public final DeltaSignature signature;
+        public final long copiedBytes;
+        public final long literalBytes;
+
+        Result(DeltaSignature signature, long copiedBytes, long literalBytes) {
+            this.signature = signature;
+            this.copiedBytes = copiedBytes;
+            this.literalBytes = literalBytes;
+        }
+    }
+
+    private final InputStream source;
+    private final DeltaSignature base;
+    private final DataOutputStream patch;
+    private final int blockSize;
+    private final DeltaSignature.Builder signatureBuilder;
+    private final MessageDigest md5 = DeltaSignature.newMd5();
+
+    private final byte[] buffer;
+    private int end = 0;
+    private int pos = 0;
+    private int literalStart = 0;
+    private boolean eof = false;
+
+    private int copyStart = -1;
+    private int copyCount = 0;
+    private long copiedBytes = 0;
+    private long literalBytes = 0;
+
+    private DeltaEncoder(InputStream source, DeltaSignature base, OutputStream patch) {
+        this.source = source;
+        this.base = base;
+        this.patch = new DataOutputStream(patch);
+        this.blockSize = base.blockSize;
+        this.signatureBuilder = new DeltaSignature.Builder(blockSize);
+        this.buffer = new byte[Math.max(MIN_BUFFER_SIZE, 4 * blockSize)];
+    }
+
+    public static Result encode(InputStream source, DeltaSignature base, OutputStream patch) throws IOException {
+        return new DeltaEncoder(source, base, patch).encode();
+    }
+
+    private Result encode() throws IOException {
+        patch.write(MAGIC);
+        patch.writeByte(VERSION);
+        patch.writeInt(blockSize);
+        patch.writeLong(base.fileLength);
+        patch.write(base.fileDigest);
+
+        DeltaSignature.RollingChecksum rolling = null;
+        while (ensure(blockSize)) {
+            if (rolling == null) {
+                rolling = new DeltaSignature.RollingChecksum(buffer, pos, blockSize);
+            }
+            int index = base.find(rolling.value(), buffer, pos, md5);
+            if (index >= 0) {
+                flushLiteral(pos);
+                addCopy(index);
+                pos += blockSize;
+                literalStart = pos;
+                rolling = null;
+                continue;
+            }
+            if (pos - literalStart >= MAX_LITERAL) {
+                flushLiteral(pos);
+            }
+            if (!ensure(blockSize + 1)) {
+                break;
+            }
+            rolling.roll(buffer[pos], buffer[pos + blockSize]);
+            pos++;
+        }
+        flushLiteral(end);
+        flushCopy();
+
+        DeltaSignature signature = signatureBuilder.build();
+        patch.writeByte(OP_END);
+        patch.writeLong(signature.fileLength);
+        patch.write(signature.fileDigest);
+        patch.flush();
+        return new Result(signature, copiedBytes, literalBytes);
+    }
+
+    /**
+     * Reads until at least {@code needed} bytes are available from {@code pos}, compacting the
+     * buffer when it is full. Returns false if the source ends first.
+     */
+    private boolean ensure(int needed) throws IOException {
+        while (end - pos < needed && !eof) {
+            if (end == buffer.length) {
+                flushLiteral(pos);
+                System.arraycopy(buffer, pos, buffer, 0, end - pos);
+                end -= pos;
+                pos = 0;
+                literalStart = 0;
+            }
+            int read = source.read(buffer, end, buffer.length - end);
+            if (read == -1) {
+                eof = true;
+            } else {
+                signatureBuilder.update(buffer, end, read);
+                end += read;
+            }
+        }
+        return end - pos >= needed;
+    }
+
+    private void addCopy(int index) throws IOException {
+        copiedBytes += blockSize;
+        if (copyCount > 0 && index == copyStart + copyCount) {
+            copyCount++;
+            return;
+        }
+        flushCopy();
+        copyStart = index;
+        copyCount = 1;
+    }
+
+    private void flushCopy() throws IOException {
+        if (copyCount == 0) {
+            return;
+        }
+        patch.writeByte(OP_COPY);
+        patch.writeInt(copyStart);
+        patch.writeInt(copyCount);
+        copyCount = 0;
+    }
+
+    private void flushLiteral(int upTo) throws IOException {
+        if (literalStart >= upTo) {
+            return;
+        }
+        flushCopy();
+        while (literalStart < upTo) {
+            int length = Math.min(upTo - literalStart, MAX_LITERAL);
+            patch.writeByte(OP_LITERAL);
+            patch.writeInt(length);
+            patch.write(buffer, literalStart, length);
+            literalStart += length;
+            literalBytes += length;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package ee.forgr.capacitor.uploader;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Block signature of a file version: an rsync-style rolling checksum and an MD5 per fixed-size block.
+ *
+ * Serialized layout (big-endian): {@code "CUSG"}, version byte {@code 1}, block size (int), file
+ * length (long), MD5 of the whole file (16 bytes), block count (int), then per block the weak
+ * checksum (int) followed by the block's 16-byte MD5. Servers that provide {@code signatureUrl}
+ * must return this layout.
+ */
+public class DeltaSignature {
+
+    static final byte[] MAGIC = new byte[] { 'C', 'U', 'S', 'G' };
+    static final int VERSION = 1;
+    static final int STRONG_LENGTH = 16;
+
+    public static final int DEFAULT_BLOCK_SIZE = 8 * 1024;
+    static final int MIN_BLOCK_SIZE = 512;
+    static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    // Keeps blockCount * STRONG_LENGTH within an int.
+    static final int MAX_BLOCK_COUNT = Integer.MAX_VALUE / STRONG_LENGTH;
+
+    final int blockSize;
+    final long fileLength;
+    final byte[] fileDigest;
+    final int[] weak;
+    final byte[] strong;
+
+    // Open-addressing table from weak checksum to block index + 1 (0 marks an empty slot).
+    private int[] table;
+    private int tableMask;
+
+    DeltaSignature(int blockSize, long fileLength, byte[] fileDigest, int[] weak, byte[] strong) {
+        this.blockSize = blockSize;
+        this.fileLength = fileLength;
+        this.fileDigest = fileDigest;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return weak.length;
+    }
+
+    public static DeltaSignature read(InputStream input) throws IOException {
+        return read(input, MAX_BLOCK_COUNT);
+    }
+
+    /**
+     * Reads a signature, rejecting one with more than {@code maxBlockCount} blocks before anything
+     * is allocated for them: the header may come from a server.
+     */
+    public static DeltaSignature read(InputStream input, int maxBlockCount) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a delta signature");
+        }
+        int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported delta signature version " + version);
+        }
+        int blockSize = data.readInt();
+        long fileLength = data.readLong();
+        byte[] fileDigest = new byte[STRONG_LENGTH];
+        data.readFully(fileDigest);
+        int blockCount = data.readInt();
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || blockCount < 0 || fileLength < 0) {
+            throw new IOException("Corrupt delta signature header");
+        }
+        if (blockCount > maxBlockCount) {
+            throw new IOException("Delta signature has " + blockCount + " blocks, more than the " + maxBlockCount + " allowed");
+        }
+        if (blockCount != (fileLength + blockSize - 1) / blockSize) {
+            throw new IOException("Delta signature block count does not match file length");
+        }
+        int[] weak = new int[blockCount];
+        byte[] strong = new byte[blockCount * STRONG_LENGTH];
+        for (int i = 0; i < blockCount; i++) {
+            weak[i] = data.readInt();
+            data.readFully(strong, i * STRONG_LENGTH, STRONG_LENGTH);
+        }
+        return new DeltaSignature(blockSize, fileLength, fileDigest, weak, strong);
+    }
+
+    public static DeltaSignature compute(InputStream input, int blockSize) throws IOException {
+        Builder builder = new Builder(blockSize);
+        byte[] buffer = new byte[Math.max(blockSize, 64 * 1024)];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            builder.update(buffer, 0, read);
+        }
+        return builder.build();
+    }
+
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream data = new DataOutputStream(output);
+        data.write(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(blockSize);
+        data.writeLong(fileLength);
+        data.write(fileDigest);
+        data.writeInt(weak.length);
+        for (int i = 0; i < weak.length; i++) {
+            data.writeInt(weak[i]);
+            data.write(strong, i * STRONG_LENGTH, STRONG_LENGTH);
+        }
+        data.flush();
+    }
+
+    /**
+     * Returns the index of a full-size block whose checksums match {@code buffer[offset, offset + blockSize)},
+     * or -1. The MD5 is only computed when the weak checksum hits.
+     */
+    int find(int weakChecksum, byte[] buffer, int offset, MessageDigest md5) {
+        if (table == null) {
+            buildTable();
+        }
+        if (table.length == 0) {
+            return -1;
+        }
+        byte[] digest = null;
+        for (int slot = mix(weakChecksum) & tableMask; table[slot] != 0; slot = (slot + 1) & tableMask) {
+            int index = table[slot] - 1;
+            if (weak[index] != weakChecksum) {
+                continue;
+            }
+            if (digest == null) {
+                md5.update(buffer, offset, blockSize);
+                digest = md5.digest();
+            }
+            if (strongEquals(index, digest)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private boolean strongEquals(int index, byte[] digest) {
+        int base = index * STRONG_LENGTH;
+        for (int i = 0; i < STRONG_LENGTH; i++) {
+            if (strong[base + i] != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void buildTable() {
+        // A trailing partial block can never match a full-size window, so it is left out.
+        int fullBlocks = (int) (fileLength / blockSize);
+        if (fullBlocks == 0) {
+            table = new int[0];
+            return;
+        }
+        int capacity = Integer.highestOneBit(Math.max(2, fullBlocks) * 2 - 1) << 1;
+        table = new int[capacity];
+        tableMask = capacity - 1;
+        for (int index = 0; index < fullBlocks; index++) {
+            int slot = mix(weak[index]) & tableMask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & tableMask;
+            }
+            table[slot] = index + 1;
+        }
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes a signature incrementally from sequential writes of a file's content.
+     */
+    public static class Builder {
+
+        private final int blockSize;
+        private final MessageDigest md5 = newMd5();
+        private final MessageDigest fileMd5 = newMd5();
+        private final byte[] block;
+        private int blockFill = 0;
+        private long length = 0;
+        private int[] weak = new int[64];
+        private byte[] strong = new byte[64 * STRONG_LENGTH];
+        private int count = 0;
+
+        public Builder(int blockSize) {
+            this.blockSize = blockSize;
+            this.block = new byte[blockSize];
+        }
+
+        public void update(byte[] buffer, int offset, int length) {
+            this.length += length;
+            fileMd5.update(buffer, offset, length);
+            while (length > 0) {
+                int copy = Math.min(length, blockSize - blockFill);
+                System.arraycopy(buffer, offset, block, blockFill, copy);
+                blockFill += copy;
+                offset += copy;
+                length -= copy;
+                if (blockFill == blockSize) {
+                    addBlock();
+                }
+            }
+        }
+
+        private void addBlock() {
+            if (count == weak.length) {
+                weak = Arrays.copyOf(weak, count * 2);
+                strong = Arrays.copyOf(strong, count * 2 * STRONG_LENGTH);
+            }
+            weak[count] = RollingChecksum.of(block, 0, blockFill);
+            md5.update(block, 0, blockFill);
+            System.arraycopy(md5.digest(), 0, strong, count * STRONG_LENGTH, STRONG_LENGTH);
+            count++;
+            blockFill = 0;
+        }
+
+        public DeltaSignature build() {
+            if (blockFill > 0) {
+                addBlock();
+            }
+            return new DeltaSignature(
+                blockSize,
+                length,
+                fileMd5.digest(),
+                Arrays.copyOf(weak, count),
+                Arrays.copyOf(strong, count * STRONG_LENGTH)
+            );
+        }
+    }
+
+    /**
+     * rsync's weak checksum: {@code a} is the byte sum and {@code b} the position-weighted sum, both
+     * modulo 2^16, packed as {@code a | b << 16}. It can be rolled forward one byte in constant time.
+     */
+    static final class RollingChecksum {
+
+        private final int length;
+        private int a;
+        private int b;
+
+        RollingChecksum(byte[] buffer, int offset, int length) {
+            this.length = length;
+            for (int i = 0; i < length; i++) {
+                int value = buffer[offset + i] & 0xff;
+                a += value;
+                b += (length - i) * value;
+            }
+        }
+
+        static int of(byte[] buffer, int offset, int length) {
+            return new RollingChecksum(buffer, offset, length).value();
+        }
+
+        void roll(byte out, byte in) {
+            int outValue = out & 0xff;
+            a += (in & 0xff) - outValue;
+            b += a - length * outValue;
+        }
+
+        int value() {
+            return (a & 0xffff) | (b << 16);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package ee.forgr.capacitor.uploader;
+
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Prepares one delta upload off the plugin thread.
+ *
+ * The base signature comes from {@code signatureUrl} when set, otherwise from the local cache. With
+ * a base, the source is streamed once through {@link DeltaEncoder} into a patch file in the cache
+ * dir and only the patch is uploaded. Without one, the full file is uploaded as a regular upload.
+ * Either way the new version's signature is staged next to the cached one and only replaces it once
+ * the server has accepted the upload. If the server rejects a patch, the cached signature is
+ * dropped and the full file is uploaded under the same upload ID.
+ */
+public class DeltaUpload implements Runnable {
+
+    private static final String TAG = "DeltaUpload";
+
+    public static final String PATCH_CONTENT_TYPE = "application/x-uploader-delta";
+
+    private static final int TIMEOUT_MS = 30 * 1000;
+
+    public interface SourceOpener {
+        InputStream open() throws IOException;
+    }
+
+    public interface Starter {
+        void startPatchUpload(File patchFile, String uploadId) throws Exception;
+
+        void startFullUpload(String uploadId) throws Exception;
+    }
+
+    public interface Listener {
+        void onDeltaFailed(String uploadId, Exception exception);
+    }
+
+    private final String uploadId;
+    private final SourceOpener source;
+    private final long sourceLength;
+    private final String signatureUrl;
+    private final Map<String, String> headers;
+    private final File signatureFile;
+    private final int blockSize;
+    private final File cacheDir;
+    private final Starter starter;
+    private final Listener listener;
+
+    private volatile boolean cancelled = false;
+    private boolean started = false;
+    private boolean patchStarted = false;
+    private boolean fallingBack = false;
+    private File patchFile;
+    private File stagedSignature;
+
+    public DeltaUpload(
+        String uploadId,
+        SourceOpener source,
+        long sourceLength,
+        String signatureUrl,
+        Map<String, String> headers,
+        File signatureFile,
+        int blockSize,
+        File cacheDir,
+        Starter starter,
+        Listener listener
+    ) {
+        this.uploadId = uploadId;
+        this.source = source;
+        this.sourceLength = sourceLength;
+        this.signatureUrl = signatureUrl;
+        this.headers = headers;
+        this.signatureFile = signatureFile;
+        this.blockSize = blockSize;
+        this.cacheDir = cacheDir;
+        this.starter = starter;
+        this.listener = listener;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    @Override
+    public void run() {
+        try {
+            DeltaSignature base = loadBaseSignature();
+            if (base == null) {
+                DeltaSignature signature;
+                try (InputStream input = openSource()) {
+                    signature = DeltaSignature.compute(input, blockSize);
+                }
+                stageSignature(signature);
+                start(false);
+                return;
+            }
+
+            if (sourceLength >= 0 && sourceLength > cacheDir.getUsableSpace()) {
+                throw new IOException("Not enough free space to stage delta patch (" + sourceLength + " bytes)");
+            }
+            synchronized (this) {
+                patchFile = File.createTempFile("upload-delta-", ".tmp", cacheDir);
+            }
+            DeltaEncoder.Result result;
+            try (InputStream input = openSource(); OutputStream output = new BufferedOutputStream(new FileOutputStream(patchFile))) {
+                result = DeltaEncoder.encode(input, base, output);
+            }
+            Log.i(
+                TAG,
+                "Delta for " + uploadId + ": " + result.copiedBytes + " bytes reused, " + result.literalBytes + " bytes sent as literals"
+            );
+            stageSignature(result.signature);
+            start(true);
+        } catch (Exception e) {
+            discard();
+            if (!cancelled) {
+                listener.onDeltaFailed(uploadId, e);
+            }
+        }
+    }
+
+    private synchronized void start(boolean patch) throws Exception {
+        if (cancelled) {
+            throw new InterruptedIOException("Delta upload cancelled");
+        }
+        if (patch) {
+            starter.startPatchUpload(patchFile, uploadId);
+        } else {
+            starter.startFullUpload(uploadId);
+        }
+        started = true;
+        patchStarted = patch;
+        fallingBack = false;
+    }
+
+    /**
+     * Called when the server rejected the patch upload: forgets the base signature and deletes the
+     * patch. Returns false if there is nothing to fall back from; otherwise the caller must run
+     * {@link #fallBackToFullUpload} once the rejected upload has completed.
+     */
+    public synchronized boolean onPatchRejected() {
+        if (!patchStarted || cancelled) {
+            return false;
+        }
+        patchStarted = false;
+        started = false;
+        fallingBack = true;
+        deleteQuietly(patchFile);
+        patchFile = null;
+        deleteQuietly(signatureFile);
+        return true;
+    }
+
+    /**
+     * True between a patch rejection and the start of the full upload that replaces it.
+     */
+    public synchronized boolean isFallingBack() {
+        return fallingBack;
+    }
+
+    /**
+     * Uploads the whole file under the rejected upload's ID, keeping the staged signature.
+     * {@code idReleased} tells whether the upload service has let go of that ID; if not, or if the
+     * upload was cancelled meanwhile, the failure is reported instead. It is reported even when
+     * cancelled, since the rejected patch's own events were not.
+     */
+    public void fallBackToFullUpload(boolean idReleased) {
+        try {
+            if (!idReleased) {
+                throw new IOException("Upload " + uploadId + " is still held by the upload service; cannot restart it in full");
+            }
+            start(false);
+        } catch (Exception e) {
+            synchronized (this) {
+                fallingBack = false;
+            }
+            discard();
+            listener.onDeltaFailed(uploadId, e);
+        }
+    }
+
+    /**
+     * Stops preparation. Returns true if no upload was started and no fallback is pending, in which
+     * case nothing else will report on this upload.
+     */
+    public synchronized boolean cancel() {
+        cancelled = true;
+        return !started && !fallingBack;
+    }
+
+    /**
+     * Makes the staged signature the base for the next delta of this file.
+     */
+    public synchronized void commit() {
+        if (stagedSignature == null) {
+            return;
+        }
+        if (!stagedSignature.renameTo(signatureFile)) {
+            Log.w(TAG, "Failed to store delta signature " + signatureFile);
+            deleteQuietly(stagedSignature);
+        }
+        stagedSignature = null;
+    }
+
+    /**
+     * Deletes the patch and any signature that was not committed.
+     */
+    public synchronized void discard() {
+        deleteQuietly(patchFile);
+        patchFile = null;
+        deleteQuietly(stagedSignature);
+        stagedSignature = null;
+    }
+
+    private InputStream openSource() throws IOException {
+        return new FilterInputStream(source.open()) {
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (cancelled) {
+                    throw new InterruptedIOException("Delta upload cancelled");
+                }
+                return super.read(buffer, offset, length);
+            }
+        };
+    }
+
+    private DeltaSignature loadBaseSignature() {
+        if (signatureUrl != null) {
+            return fetchSignature();
+        }
+        if (!signatureFile.isFile()) {
+            return null;
+        }
+        try (InputStream input = new BufferedInputStream(new FileInputStream(signatureFile))) {
+            return DeltaSignature.read(input, maxBaseBlockCount());
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable delta signature " + signatureFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Bounds the base signature by what a version up to twice the source's size could need at the
+     * smallest block size. A larger base is no use as a delta base anyway.
+     */
+    private int maxBaseBlockCount() {
+        if (sourceLength < 0) {
+            return DeltaSignature.MAX_BLOCK_COUNT;
+        }
+        long blocks = (2 * sourceLength) / DeltaSignature.MIN_BLOCK_SIZE + 1;
+        return (int) Math.min(blocks, DeltaSignature.MAX_BLOCK_COUNT);
+    }
+
+    private DeltaSignature fetchSignature() {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(signatureUrl).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    connection.setRequestProperty(entry.getKey(), entry.getValue());
+                }
+            }
+            int statusCode = connection.getResponseCode();
+            if (statusCode != HttpURLConnection.HTTP_OK) {
+                Log.i(TAG, "No delta signature at " + signatureUrl + " (HTTP " + statusCode + "); uploading the full file");
+                return null;
+            }
+            try (InputStream input = new BufferedInputStream(connection.getInputStream())) {
+                return DeltaSignature.read(input, maxBaseBlockCount());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to fetch delta signature from " + signatureUrl + "; uploading the full file", e);
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private void stageSignature(DeltaSignature signature) throws IOException {
+        File directory = signatureFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File staged = new File(directory, signatureFile.getName() + "." + uploadId + ".tmp");
+        synchronized (this) {
+            stagedSignature = staged;
+        }
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(staged))) {
+            signature.write(output);
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file != null && file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package ee.forgr.capacitor.uploader;
+
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Walks a directory lazily and starts one upload per matching file.
+ *
+ * Only one directory listing and the queue of not-yet-visited subdirectories are held in memory,
+ * and at most {@code maxConcurrentUploads} uploads are in flight, so enumerating very large trees
+ * does not grow with the number of files. Symbolic links to directories are not followed.
+ */
+public class DirectoryUpload implements Runnable {
+
+    private static final String TAG = "DirectoryUpload";
+
+    private static final int PROGRESS_EVERY_FILES = 50;
+    private static final long PROGRESS_EVERY_MS = 250;
+
+    public interface FileStarter {
+        void startFileUpload(File file, String uploadId) throws Exception;
+    }
+
+    public interface Listener {
+        void onEnumerationProgress(String directoryId, long discoveredFiles, long discoveredBytes, boolean done);
+
+        void onFileFailed(String directoryId, File file, Exception exception);
+    }
+
+    private final String id;
+    private final File root;
+    private final GlobMatcher include;
+    private final GlobMatcher exclude;
+    private final boolean recursive;
+    private final Semaphore inFlight;
+    private final FileStarter starter;
+    private final Listener listener;
+    private final Set<String> activeUploads = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean cancelled = false;
+    private volatile boolean enumerating = true;
+    private volatile Thread worker;
+    private long discoveredFiles = 0;
+    private long discoveredBytes = 0;
+    private long lastProgressAt = 0;
+
+    public DirectoryUpload(
+        String id,
+        File root,
+        GlobMatcher include,
+        GlobMatcher exclude,
+        boolean recursive,
+        int maxConcurrentUploads,
+        FileStarter starter,
+        Listener listener
+    ) {
+        this.id = id;
+        this.root = root;
+        this.include = include;
+        this.exclude = exclude;
+        this.recursive = recursive;
+        this.inFlight = new Semaphore(Math.max(1, maxConcurrentUploads));
+        this.starter = starter;
+        this.listener = listener;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void run() {
+        worker = Thread.currentThread();
+        Deque<File> pending = new ArrayDeque<>();
+        pending.push(root);
+        int rootPathLength = root.getAbsolutePath().length() + 1;
+
+        try {
+            while (!pending.isEmpty() && !cancelled) {
+                File directory = pending.pop();
+                String[] names = directory.list();
+                if (names == null) {
+                    Log.w(TAG, "Cannot list directory: " + directory);
+                    continue;
+                }
+                for (String name : names) {
+                    if (cancelled) {
+                        break;
+                    }
+                    File child = new File(directory, name);
+                    String relativePath = child.getAbsolutePath().substring(rootPathLength);
+                    boolean isDirectory = child.isDirectory();
+                    if (isDirectory ? exclude.matchesDirectory(relativePath) : exclude.matches(relativePath)) {
+                        continue;
+                    }
+                    if (isDirectory) {
+                        if (recursive) {
+                            // A linked directory may point back at an ancestor and loop forever.
+                            if (isSymbolicLink(child)) {
+                                Log.i(TAG, "Skipping symbolic link to a directory: " + child);
+                            } else {
+                                pending.push(child);
+                            }
+                        }
+                        continue;
+                    }
+                    if (!child.isFile() || (!include.isEmpty() && !include.matches(relativePath))) {
+                        continue;
+                    }
+                    startFile(child);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            worker = null;
+            enumerating = false;
+            listener.onEnumerationProgress(id, discoveredFiles, discoveredBytes, true);
+        }
+    }
+
+    /**
+     * True if {@code file} itself is a symbolic link. Only the parent is resolved first, so links
+     * higher up the path (such as {@code /sdcard}) do not count. Unresolvable paths count as links.
+     */
+    private static boolean isSymbolicLink(File file) {
+        try {
+            File parent = file.getParentFile();
+            File candidate = parent == null ? file : new File(parent.getCanonicalFile(), file.getName());
+            return !candidate.getCanonicalFile().equals(candidate.getAbsoluteFile());
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void startFile(File file) throws InterruptedException {
+        discoveredFiles++;
+        discoveredBytes += file.length();
+        reportProgress();
+
+        inFlight.acquire();
+        if (cancelled) {
+            inFlight.release();
+            return;
+        }
+        // Register the ID before starting so a fast completion cannot miss its slot release.
+        String uploadId = UUID.randomUUID().toString();
+        activeUploads.add(uploadId);
+        try {
+            starter.startFileUpload(file, uploadId);
+        } catch (Exception e) {
+            onUploadFinished(uploadId);
+            listener.onFileFailed(id, file, e);
+        }
+    }
+
+    private void reportProgress() {
+        long now = SystemClock.elapsedRealtime();
+        if (discoveredFiles % PROGRESS_EVERY_FILES == 0 || now - lastProgressAt >= PROGRESS_EVERY_MS) {
+            lastProgressAt = now;
+            listener.onEnumerationProgress(id, discoveredFiles, discoveredBytes, false);
+        }
+    }
+
+    public boolean owns(String uploadId) {
+        return activeUploads.contains(uploadId);
+    }
+
+    /**
+     * Frees the concurrency slot held by a finished upload so enumeration can continue.
+     */
+    public void onUploadFinished(String uploadId) {
+        if (activeUploads.remove(uploadId)) {
+            inFlight.release();
+        }
+    }
+
+    public Set<String> cancel() {
+        cancelled = true;
+        Thread thread = worker;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        return activeUploads;
+    }
+
+    public boolean isFinished() {
+        return !enumerating && activeUploads.isEmpty();
+    }
+}
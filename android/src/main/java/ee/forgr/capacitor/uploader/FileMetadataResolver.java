@@ -0,0 +1,315 @@
+package ee.forgr.capacitor.uploader;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves display name, size and MIME type for upload sources.
+ *
+ * Content URIs are queried with an explicit projection instead of every column. MediaStore items
+ * living in the same collection are looked up with a single {@code _id IN (...)} query, and results
+ * are kept in a bounded LRU cache so repeated uploads of the same selection skip the provider.
+ * Plain paths and {@code file://} URIs are cheap to stat and are never cached, so their size always
+ * reflects the file as it is now.
+ */
+public class FileMetadataResolver {
+
+    private static final String TAG = "FileMetadataResolver";
+
+    private static final int DEFAULT_CACHE_SIZE = 512;
+
+    // SQLite's default host parameter limit is 999; stay well below it.
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private static final String[] PROJECTION = new String[] {
+        OpenableColumns.DISPLAY_NAME,
+        OpenableColumns.SIZE,
+        MediaStore.MediaColumns.MIME_TYPE
+    };
+
+    private static final String[] BATCH_PROJECTION = new String[] {
+        BaseColumns._ID,
+        OpenableColumns.DISPLAY_NAME,
+        OpenableColumns.SIZE,
+        MediaStore.MediaColumns.MIME_TYPE
+    };
+
+    public static class FileMetadata {
+
+        public static final long UNKNOWN_SIZE = -1;
+
+        public final String displayName;
+        public final long size;
+        public final String mimeType;
+
+        public FileMetadata(String displayName, long size, String mimeType) {
+            this.displayName = displayName;
+            this.size = size;
+            this.mimeType = mimeType;
+        }
+
+        public boolean hasSize() {
+            return size >= 0;
+        }
+    }
+
+    private final Context context;
+    private final Map<String, FileMetadata> cache;
+
+    public FileMetadataResolver(Context context) {
+        this(context, DEFAULT_CACHE_SIZE);
+    }
+
+    public FileMetadataResolver(Context context, final int maxEntries) {
+        this.context = context;
+        this.cache = new LinkedHashMap<String, FileMetadata>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileMetadata> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public FileMetadata resolve(String filePath) {
+        List<String> paths = new ArrayList<>(1);
+        paths.add(filePath);
+        return resolveAll(paths).get(filePath);
+    }
+
+    /**
+     * Resolves metadata for every path, keyed by the path as given. MediaStore URIs that share a
+     * collection are fetched together; other content URIs fall back to one projected query each.
+     */
+    public Map<String, FileMetadata> resolveAll(List<String> filePaths) {
+        Map<String, FileMetadata> results = new HashMap<>();
+        Map<Uri, List<Uri>> mediaStoreBatches = new LinkedHashMap<>();
+
+        for (String filePath : filePaths) {
+            if (filePath == null || filePath.isEmpty() || results.containsKey(filePath)) {
+                continue;
+            }
+            if (!filePath.startsWith("content://")) {
+                results.put(filePath, resolveFile(filePath));
+                continue;
+            }
+            FileMetadata cached = getCached(filePath);
+            if (cached != null) {
+                results.put(filePath, cached);
+                continue;
+            }
+            Uri uri = Uri.parse(filePath);
+            Uri collection = getMediaStoreCollection(uri);
+            if (collection != null) {
+                List<Uri> batch = mediaStoreBatches.get(collection);
+                if (batch == null) {
+                    batch = new ArrayList<>();
+                    mediaStoreBatches.put(collection, batch);
+                }
+                batch.add(uri);
+            } else {
+                results.put(filePath, queryContentUri(uri));
+            }
+        }
+
+        for (Map.Entry<Uri, List<Uri>> entry : mediaStoreBatches.entrySet()) {
+            List<Uri> uris = entry.getValue();
+            for (int start = 0; start < uris.size(); start += MAX_BATCH_SIZE) {
+                List<Uri> chunk = uris.subList(start, Math.min(start + MAX_BATCH_SIZE, uris.size()));
+                queryMediaStoreBatch(entry.getKey(), chunk, results);
+            }
+        }
+
+        return results;
+    }
+
+    public void invalidate(String filePath) {
+        synchronized (cache) {
+            cache.remove(filePath);
+        }
+    }
+
+    private FileMetadata getCached(String filePath) {
+        synchronized (cache) {
+            return cache.get(filePath);
+        }
+    }
+
+    private FileMetadata cache(String filePath, FileMetadata metadata) {
+        synchronized (cache) {
+            cache.put(filePath, metadata);
+        }
+        return metadata;
+    }
+
+    private void queryMediaStoreBatch(Uri collection, List<Uri> uris, Map<String, FileMetadata> results) {
+        Map<Long, Uri> byId = new HashMap<>();
+        StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (");
+        String[] selectionArgs = new String[uris.size()];
+        for (int i = 0; i < uris.size(); i++) {
+            Uri uri = uris.get(i);
+            long id = ContentUris.parseId(uri);
+            byId.put(id, uri);
+            selectionArgs[i] = String.valueOf(id);
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+
+        ContentResolver resolver = context.getContentResolver();
+        try (Cursor cursor = resolver.query(collection, BATCH_PROJECTION, selection.toString(), selectionArgs, null)) {
+            if (cursor != null) {
+                int idIndex = cursor.getColumnIndex(BaseColumns._ID);
+                while (cursor.moveToNext()) {
+                    Uri uri = byId.remove(cursor.getLong(idIndex));
+                    if (uri != null) {
+                        FileMetadata metadata = readRow(cursor, uri);
+                        results.put(uri.toString(), cache(uri.toString(), metadata));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Batched MediaStore query failed for " + collection, e);
+        }
+
+        // Anything the batch did not return (pending items, other volumes) is queried one by one.
+        for (Uri uri : byId.values()) {
+            results.put(uri.toString(), queryContentUri(uri));
+        }
+    }
+
+    /**
+     * Queries one content URI. Only rows read from the provider are cached; the fallback built when
+     * the query fails or returns nothing is not, since the failure may be transient (e.g. a URI
+     * permission that has not been granted yet).
+     */
+    private FileMetadata queryContentUri(Uri uri) {
+        ContentResolver resolver = context.getContentResolver();
+        try (Cursor cursor = resolver.query(uri, PROJECTION, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return cache(uri.toString(), readRow(cursor, uri));
+            }
+        } catch (IllegalArgumentException e) {
+            // Some providers reject MIME_TYPE in the projection; retry with the OpenableColumns only.
+            try (Cursor cursor = resolver.query(uri, new String[] { OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE }, null, null, null)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    return cache(uri.toString(), readRow(cursor, uri));
+                }
+            } catch (Exception inner) {
+                Log.w(TAG, "Failed to query metadata for " + uri, inner);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to query metadata for " + uri, e);
+        }
+        return new FileMetadata(getLastPathSegment(uri.getPath()), FileMetadata.UNKNOWN_SIZE, getContentType(uri));
+    }
+
+    private FileMetadata readRow(Cursor cursor, Uri uri) {
+        String displayName = null;
+        long size = FileMetadata.UNKNOWN_SIZE;
+        String mimeType = null;
+
+        int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+        if (nameIndex != -1 && !cursor.isNull(nameIndex)) {
+            displayName = cursor.getString(nameIndex);
+        }
+        int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+        if (sizeIndex != -1 && !cursor.isNull(sizeIndex)) {
+            size = cursor.getLong(sizeIndex);
+        }
+        int mimeIndex = cursor.getColumnIndex(MediaStore.MediaColumns.MIME_TYPE);
+        if (mimeIndex != -1 && !cursor.isNull(mimeIndex)) {
+            mimeType = cursor.getString(mimeIndex);
+        }
+
+        if (displayName == null) {
+            displayName = getLastPathSegment(uri.getPath());
+        }
+        if (mimeType == null) {
+            mimeType = getContentType(uri);
+        }
+        return new FileMetadata(displayName, size, mimeType);
+    }
+
+    private String getContentType(Uri uri) {
+        // Resolved lazily: getType() is a separate provider call, only needed when MIME_TYPE is absent.
+        try {
+            String type = context.getContentResolver().getType(uri);
+            if (type != null) {
+                return type;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to resolve content type for " + uri, e);
+        }
+        return getMimeTypeFromExtension(uri.getPath());
+    }
+
+    private FileMetadata resolveFile(String filePath) {
+        String path = filePath;
+        if (filePath.startsWith("file://")) {
+            path = Uri.parse(filePath).getPath();
+        }
+        if (path == null) {
+            return new FileMetadata(null, FileMetadata.UNKNOWN_SIZE, null);
+        }
+        File file = new File(path);
+        long size = file.isFile() ? file.length() : FileMetadata.UNKNOWN_SIZE;
+        return new FileMetadata(file.getName(), size, getMimeTypeFromExtension(path));
+    }
+
+    /**
+     * Returns the collection URI for {@code content://media/<volume>/<type>/media/<id>} style URIs, or
+     * {@code null} when the URI cannot be batched.
+     */
+    private static Uri getMediaStoreCollection(Uri uri) {
+        if (!MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+            return null;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2) {
+            return null;
+        }
+        String last = segments.get(segments.size() - 1);
+        for (int i = 0; i < last.length(); i++) {
+            if (!Character.isDigit(last.charAt(i))) {
+                return null;
+            }
+        }
+        Uri.Builder builder = uri.buildUpon().path(null).query(null).fragment(null);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            builder.appendPath(segments.get(i));
+        }
+        return builder.build();
+    }
+
+    private static String getLastPathSegment(String path) {
+        if (path == null) {
+            return null;
+        }
+        int cut = path.lastIndexOf('/');
+        return cut != -1 ? path.substring(cut + 1) : path;
+    }
+
+    static String getMimeTypeFromExtension(String url) {
+        if (url == null) {
+            return null;
+        }
+        String extension = MimeTypeMap.getFileExtensionFromUrl(url);
+        if (extension == null || extension.isEmpty()) {
+            return null;
+        }
+        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase());
+    }
+}
@@ -0,0 +1,137 @@
+package ee.forgr.capacitor.uploader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches '/'-separated relative paths against glob patterns.
+ *
+ * Supported syntax: {@code *} (any run of characters within a segment), {@code **} (any number of
+ * segments), {@code ?} (one character within a segment) and {@code {a,b}} alternation. Patterns
+ * without a '/' are matched against the file name only, so {@code *.jpg} matches at any depth.
+ * A pattern ending in {@code /**} also matches the directory itself, so {@code thumbnails/**}
+ * prunes {@code thumbnails} during a walk.
+ */
+public class GlobMatcher {
+
+    private final List<Pattern> pathPatterns = new ArrayList<>();
+    private final List<Pattern> namePatterns = new ArrayList<>();
+    private final List<Pattern> directoryPatterns = new ArrayList<>();
+
+    public GlobMatcher(List<String> globs) {
+        if (globs == null) {
+            return;
+        }
+        for (String glob : globs) {
+            if (glob == null || glob.isEmpty()) {
+                continue;
+            }
+            String normalized = glob.startsWith("/") ? glob.substring(1) : glob;
+            if (normalized.indexOf('/') == -1) {
+                namePatterns.add(toPattern(normalized));
+            } else {
+                pathPatterns.add(toPattern(normalized));
+                if (normalized.endsWith("/**") && normalized.length() > 3) {
+                    directoryPatterns.add(toPattern(normalized.substring(0, normalized.length() - 3)));
+                }
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return pathPatterns.isEmpty() && namePatterns.isEmpty();
+    }
+
+    public boolean matches(String relativePath) {
+        int cut = relativePath.lastIndexOf('/');
+        String name = cut != -1 ? relativePath.substring(cut + 1) : relativePath;
+        for (Pattern pattern : namePatterns) {
+            if (pattern.matcher(name).matches()) {
+                return true;
+            }
+        }
+        for (Pattern pattern : pathPatterns) {
+            if (pattern.matcher(relativePath).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Like {@link #matches}, but also true for a directory whose whole content a {@code dir/**}
+     * pattern matches.
+     */
+    public boolean matchesDirectory(String relativePath) {
+        if (matches(relativePath)) {
+            return true;
+        }
+        for (Pattern pattern : directoryPatterns) {
+            if (pattern.matcher(relativePath).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Pattern toPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int braceDepth = 0;
+        int length = glob.length();
+        for (int i = 0; i < length; i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < length && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < length && glob.charAt(i + 1) == '/') {
+                            // "**/" also matches zero directories.
+                            i++;
+                            regex.append("(?:.*/)?");
+                        } else {
+                            regex.append(".*");
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '{':
+                    braceDepth++;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    if (braceDepth > 0) {
+                        braceDepth--;
+                        regex.append(')');
+                    } else {
+                        regex.append("\\}");
+                    }
+                    break;
+                case ',':
+                    regex.append(braceDepth > 0 ? "|" : ",");
+                    break;
+                case '\\':
+                    if (i + 1 < length) {
+                        i++;
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                    } else {
+                        regex.append("\\\\");
+                    }
+                    break;
+                default:
+                    if ("().[]^$+|".indexOf(c) != -1) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+        while (braceDepth-- > 0) {
+            regex.append(')');
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
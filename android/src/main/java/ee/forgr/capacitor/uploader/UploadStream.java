@@ -0,0 +1,366 @@
+package ee.forgr.capacitor.uploader;
+
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pipes chunks written from JS into a chunked-transfer HTTP request without staging a file.
+ *
+ * At most {@code maxBufferedBytes} are held in memory; writes beyond that are parked and only
+ * acknowledged once the sender has drained enough data, which is how backpressure reaches JS.
+ * When spilling is enabled every sent byte is also appended to a cache file so the request can be
+ * replayed from the start after a connection failure, up to {@code maxSpillBytes}.
+ */
+public class UploadStream implements Runnable {
+
+    private static final String TAG = "UploadStream";
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int TIMEOUT_MS = 30 * 1000;
+
+    public interface WriteCallback {
+        void onAccepted(long bufferedBytes, long availableBytes);
+
+        void onError(Exception exception);
+    }
+
+    public interface Listener {
+        void onFinished(String streamId, int statusCode, long bytesSent);
+
+        void onFailed(String streamId, int statusCode, Exception exception);
+    }
+
+    private static class PendingWrite {
+
+        final byte[] data;
+        final WriteCallback callback;
+
+        PendingWrite(byte[] data, WriteCallback callback) {
+            this.data = data;
+            this.callback = callback;
+        }
+    }
+
+    private final String id;
+    private final String serverUrl;
+    private final String httpMethod;
+    private final Map<String, String> headers;
+    private final long maxBufferedBytes;
+    private final int maxRetries;
+    private final File spillDir;
+    private final long maxSpillBytes;
+    private final Listener listener;
+
+    private final Object lock = new Object();
+    private final Deque<byte[]> buffered = new ArrayDeque<>();
+    private final Deque<PendingWrite> parked = new ArrayDeque<>();
+    private long bufferedBytes = 0;
+    private boolean finished = false;
+    private Exception failure = null;
+    private volatile boolean cancelled = false;
+    private volatile HttpURLConnection connection;
+
+    private File spillFile;
+    private OutputStream spillOutput;
+    private boolean spillDisabled = false;
+    private long bytesSent = 0;
+
+    public UploadStream(
+        String id,
+        String serverUrl,
+        String httpMethod,
+        Map<String, String> headers,
+        long maxBufferedBytes,
+        int maxRetries,
+        File spillDir,
+        long maxSpillBytes,
+        Listener listener
+    ) {
+        this.id = id;
+        this.serverUrl = serverUrl;
+        this.httpMethod = httpMethod;
+        this.headers = headers;
+        this.maxBufferedBytes = Math.max(CHUNK_SIZE, maxBufferedBytes);
+        this.maxRetries = maxRetries;
+        this.spillDir = spillDir;
+        this.maxSpillBytes = maxSpillBytes;
+        this.listener = listener;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Queues {@code data} for sending. The callback fires once the chunk fits in the memory budget,
+     * which may be immediately or after the sender has drained earlier chunks.
+     */
+    public void write(byte[] data, WriteCallback callback) {
+        long accepted;
+        synchronized (lock) {
+            if (failure != null) {
+                callback.onError(failure);
+                return;
+            }
+            if (finished) {
+                callback.onError(new IllegalStateException("Upload stream is already finished"));
+                return;
+            }
+            if (data.length == 0) {
+                accepted = bufferedBytes;
+            } else if (parked.isEmpty() && (bufferedBytes == 0 || bufferedBytes + data.length <= maxBufferedBytes)) {
+                buffered.addLast(data);
+                bufferedBytes += data.length;
+                lock.notifyAll();
+                accepted = bufferedBytes;
+            } else {
+                parked.addLast(new PendingWrite(data, callback));
+                return;
+            }
+        }
+        callback.onAccepted(accepted, Math.max(0, maxBufferedBytes - accepted));
+    }
+
+    public void finish() {
+        synchronized (lock) {
+            finished = true;
+            lock.notifyAll();
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+        fail(new IOException("Upload stream cancelled"));
+        HttpURLConnection current = connection;
+        if (current != null) {
+            current.disconnect();
+        }
+    }
+
+    @Override
+    public void run() {
+        int attempt = 0;
+        try {
+            while (true) {
+                try {
+                    int statusCode = sendAttempt(attempt > 0);
+                    if (statusCode >= 200 && statusCode < 300) {
+                        listener.onFinished(id, statusCode, bytesSent);
+                    } else {
+                        Exception error = new IOException("Upload failed with HTTP status " + statusCode);
+                        fail(error);
+                        listener.onFailed(id, statusCode, error);
+                    }
+                    return;
+                } catch (IOException e) {
+                    if (cancelled || attempt >= maxRetries || !canReplay()) {
+                        throw e;
+                    }
+                    attempt++;
+                    Log.w(TAG, "Upload stream " + id + " failed, retrying (" + attempt + "/" + maxRetries + ")", e);
+                }
+            }
+        } catch (Exception e) {
+            fail(e);
+            // Also reported on cancel, so a pending finish call is settled; the cancellation is
+            // the recorded failure in that case.
+            listener.onFailed(id, -1, cancelled ? currentFailure(e) : e);
+        } finally {
+            closeSpill();
+        }
+    }
+
+    private int sendAttempt(boolean replay) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(serverUrl).openConnection();
+        connection = conn;
+        try {
+            conn.setConnectTimeout(TIMEOUT_MS);
+            conn.setReadTimeout(TIMEOUT_MS);
+            conn.setDoOutput(true);
+            conn.setRequestMethod(httpMethod);
+            conn.setChunkedStreamingMode(CHUNK_SIZE);
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    conn.setRequestProperty(entry.getKey(), entry.getValue());
+                }
+            }
+
+            try (OutputStream output = conn.getOutputStream()) {
+                bytesSent = 0;
+                if (replay) {
+                    replaySpill(output);
+                }
+                byte[] chunk;
+                while ((chunk = take()) != null) {
+                    // Spill before writing so a chunk lost mid-write is part of the replay.
+                    appendSpill(chunk);
+                    release(chunk.length);
+                    output.write(chunk);
+                    bytesSent += chunk.length;
+                }
+            } catch (SocketTimeoutException e) {
+                // A stalled server: retried like a dropped connection.
+                throw e;
+            } catch (IOException e) {
+                // A server that rejects the request early may close the connection while the body
+                // is still being written; report its status instead of retrying a lost connection.
+                int statusCode = earlyStatusCode(conn);
+                if (statusCode < 400) {
+                    throw e;
+                }
+                Log.w(TAG, "Upload stream " + id + " rejected with HTTP status " + statusCode + " while sending", e);
+                return statusCode;
+            }
+            return conn.getResponseCode();
+        } finally {
+            conn.disconnect();
+            connection = null;
+        }
+    }
+
+    private int earlyStatusCode(HttpURLConnection conn) {
+        if (cancelled) {
+            return -1;
+        }
+        try {
+            return conn.getResponseCode();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private Exception currentFailure(Exception fallback) {
+        synchronized (lock) {
+            return failure != null ? failure : fallback;
+        }
+    }
+
+    private byte[] take() throws IOException {
+        synchronized (lock) {
+            while (buffered.isEmpty()) {
+                if (failure != null) {
+                    throw new IOException(failure.getMessage(), failure);
+                }
+                if (finished && parked.isEmpty()) {
+                    return null;
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Upload stream interrupted", e);
+                }
+            }
+            return buffered.pollFirst();
+        }
+    }
+
+    /**
+     * Accounts for a chunk handed to the connection and admits parked writes that now fit.
+     */
+    private void release(int length) {
+        List<PendingWrite> admitted = new ArrayList<>();
+        long accepted;
+        synchronized (lock) {
+            bufferedBytes -= length;
+            while (!parked.isEmpty() && (bufferedBytes == 0 || bufferedBytes + parked.peekFirst().data.length <= maxBufferedBytes)) {
+                PendingWrite pending = parked.pollFirst();
+                buffered.addLast(pending.data);
+                bufferedBytes += pending.data.length;
+                admitted.add(pending);
+            }
+            accepted = bufferedBytes;
+        }
+        for (PendingWrite pending : admitted) {
+            pending.callback.onAccepted(accepted, Math.max(0, maxBufferedBytes - accepted));
+        }
+    }
+
+    private void fail(Exception exception) {
+        List<PendingWrite> rejected;
+        synchronized (lock) {
+            if (failure == null) {
+                failure = exception;
+            }
+            rejected = new ArrayList<>(parked);
+            parked.clear();
+            buffered.clear();
+            bufferedBytes = 0;
+            lock.notifyAll();
+        }
+        for (PendingWrite pending : rejected) {
+            pending.callback.onError(exception);
+        }
+    }
+
+    private boolean canReplay() {
+        return spillOutput != null;
+    }
+
+    private void appendSpill(byte[] chunk) {
+        if (spillDir == null || maxSpillBytes <= 0 || spillDisabled) {
+            return;
+        }
+        try {
+            if (spillFile == null) {
+                spillFile = File.createTempFile("upload-stream-", ".tmp", spillDir);
+                spillOutput = new FileOutputStream(spillFile);
+            }
+            if (bytesSent + chunk.length > maxSpillBytes) {
+                // Past the spill budget the request can no longer be replayed from the start.
+                Log.w(TAG, "Upload stream " + id + " exceeded spill budget; retries disabled");
+                spillDisabled = true;
+                closeSpill();
+                return;
+            }
+            spillOutput.write(chunk);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to spill upload stream " + id + "; retries disabled", e);
+            spillDisabled = true;
+            closeSpill();
+        }
+    }
+
+    private void replaySpill(OutputStream output) throws IOException {
+        spillOutput.flush();
+        try (InputStream input = new FileInputStream(spillFile)) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+                bytesSent += read;
+            }
+        }
+    }
+
+    private void closeSpill() {
+        if (spillOutput != null) {
+            try {
+                spillOutput.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close spill file", e);
+            }
+            spillOutput = null;
+        }
+        if (spillFile != null) {
+            if (!spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+            spillFile = null;
+        }
+    }
+}
@@ -2,9 +2,8 @@ package ee.forgr.capacitor.uploader;
 
 import android.app.Application;
 import android.content.Context;
-import android.database.Cursor;
 import android.net.Uri;
-import android.provider.OpenableColumns;
+import android.util.Log;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -13,21 +12,48 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import net.gotev.uploadservice.UploadService;
 import net.gotev.uploadservice.UploadServiceConfig;
+import net.gotev.uploadservice.data.UploadInfo;
 import net.gotev.uploadservice.data.UploadNotificationConfig;
 import net.gotev.uploadservice.data.UploadNotificationStatusConfig;
+import net.gotev.uploadservice.exceptions.UploadError;
+import net.gotev.uploadservice.network.ServerResponse;
+import net.gotev.uploadservice.observer.request.GlobalRequestObserver;
+import net.gotev.uploadservice.observer.request.RequestObserverDelegate;
 import net.gotev.uploadservice.protocols.binary.BinaryUploadRequest;
 
 public class Uploader {
 
+    private static final String TAG = "Uploader";
     private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final String SIGNATURE_DIR = "uploader-signatures";
+    // Staged signatures younger than this may belong to a delta upload still being prepared.
+    private static final long STALE_SIGNATURE_AGE_MS = 60 * 60 * 1000;
+    private static final long TASK_EXIT_WAIT_MS = 10 * 1000;
+    private static final long TASK_EXIT_POLL_MS = 50;
 
     private final Context context;
+    private final FileMetadataResolver metadataResolver;
     private final Map<String, File> tempMultipartBodies = new ConcurrentHashMap<>();
+    private final Map<String, DirectoryUpload> directoryUploads = new ConcurrentHashMap<>();
+    private final Map<String, UploadStream> uploadStreams = new ConcurrentHashMap<>();
+    private final Map<String, DeltaUpload> deltaUploads = new ConcurrentHashMap<>();
+    private final ExecutorService workerExecutor = Executors.newCachedThreadPool();
+    private final GlobalRequestObserver requestObserver;
+    private volatile RequestObserverDelegate requestObserverDelegate;
+    private volatile boolean destroyed = false;
 
     public static class UploadFile {
 
@@ -44,7 +70,132 @@ public class Uploader {
 
     public Uploader(Context context) {
         this.context = context;
+        this.metadataResolver = new FileMetadataResolver(context);
         initializeUploadService(context);
+        // Application-scoped so staged bodies, directory slots and delta signatures are settled
+        // even while no activity is in the foreground.
+        this.requestObserver = new GlobalRequestObserver(getApplication(context), bookkeepingDelegate, uploadInfo -> true);
+        workerExecutor.execute(this::deleteStaleStagedSignatures);
+    }
+
+    /**
+     * Deletes signatures staged by delta uploads that never completed, e.g. because the process
+     * was killed. Skipped while uploads are running, since those may still commit theirs.
+     */
+    private void deleteStaleStagedSignatures() {
+        if (!UploadService.getTaskList().isEmpty()) {
+            return;
+        }
+        File[] staged = new File(context.getFilesDir(), SIGNATURE_DIR).listFiles((dir, name) -> name.endsWith(".tmp"));
+        if (staged == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - STALE_SIGNATURE_AGE_MS;
+        for (File file : staged) {
+            if (file.lastModified() < cutoff && !file.delete()) {
+                Log.w(TAG, "Failed to delete stale delta signature " + file);
+            }
+        }
+    }
+
+    /**
+     * Receives upload service events after the uploader has done its own bookkeeping for them.
+     */
+    public void setRequestObserverDelegate(RequestObserverDelegate delegate) {
+        this.requestObserverDelegate = delegate;
+    }
+
+    /**
+     * Detaches the delegate. The observer stays registered until the uploads this instance is
+     * still tracking have finished, so their cleanup is not lost.
+     */
+    public void destroy() {
+        requestObserverDelegate = null;
+        destroyed = true;
+        unregisterIfIdle();
+    }
+
+    private void unregisterIfIdle() {
+        if (destroyed && tempMultipartBodies.isEmpty() && directoryUploads.isEmpty() && deltaUploads.isEmpty()) {
+            requestObserver.unregister();
+        }
+    }
+
+    private final RequestObserverDelegate bookkeepingDelegate = new RequestObserverDelegate() {
+        @Override
+        public void onProgress(Context context, UploadInfo uploadInfo) {
+            RequestObserverDelegate delegate = requestObserverDelegate;
+            if (delegate != null) {
+                delegate.onProgress(context, uploadInfo);
+            }
+        }
+
+        @Override
+        public void onSuccess(Context context, UploadInfo uploadInfo, ServerResponse serverResponse) {
+            clearTempMultipartBody(uploadInfo.getUploadId());
+            DeltaUpload deltaUpload = deltaUploads.get(uploadInfo.getUploadId());
+            if (deltaUpload != null) {
+                deltaUpload.commit();
+            }
+            RequestObserverDelegate delegate = requestObserverDelegate;
+            if (delegate != null) {
+                delegate.onSuccess(context, uploadInfo, serverResponse);
+            }
+        }
+
+        @Override
+        public void onError(Context context, UploadInfo uploadInfo, Throwable exception) {
+            clearTempMultipartBody(uploadInfo.getUploadId());
+            DeltaUpload deltaUpload = deltaUploads.get(uploadInfo.getUploadId());
+            if (deltaUpload != null && isPatchRejection(exception) && deltaUpload.onPatchRejected()) {
+                // Not reported: the full upload that replaces the patch reports under the same ID.
+                Log.i(TAG, "Patch for " + uploadInfo.getUploadId() + " rejected; uploading the full file");
+                return;
+            }
+            RequestObserverDelegate delegate = requestObserverDelegate;
+            if (delegate != null) {
+                delegate.onError(context, uploadInfo, exception);
+            }
+        }
+
+        @Override
+        public void onCompleted(Context context, UploadInfo uploadInfo) {
+            String uploadId = uploadInfo.getUploadId();
+            clearTempMultipartBody(uploadId);
+            DeltaUpload deltaUpload = deltaUploads.get(uploadId);
+            if (deltaUpload != null && deltaUpload.isFallingBack()) {
+                workerExecutor.execute(() -> deltaUpload.fallBackToFullUpload(awaitTaskExit(uploadId)));
+                return;
+            }
+            if (deltaUpload != null) {
+                deltaUploads.remove(uploadId);
+                deltaUpload.discard();
+            }
+            RequestObserverDelegate delegate = requestObserverDelegate;
+            if (delegate != null) {
+                // Before the slot is released, so the delegate can still look up the directory.
+                delegate.onCompleted(context, uploadInfo);
+            }
+            for (DirectoryUpload directoryUpload : directoryUploads.values()) {
+                directoryUpload.onUploadFinished(uploadId);
+                if (directoryUpload.isFinished()) {
+                    directoryUploads.remove(directoryUpload.getId());
+                }
+            }
+            unregisterIfIdle();
+        }
+
+        @Override
+        public void onCompletedWhileNotObserving() {
+            RequestObserverDelegate delegate = requestObserverDelegate;
+            if (delegate != null) {
+                delegate.onCompletedWhileNotObserving();
+            }
+        }
+    };
+
+    public FileMetadataResolver getMetadataResolver() {
+        return metadataResolver;
     }
 
     private void initializeUploadService(Context context) {
@@ -75,6 +226,24 @@ public class Uploader {
         String notificationTitle,
         int maxRetries,
         String uploadType
+    ) throws Exception {
+        return startUpload(files, serverUrl, headers, parameters, httpMethod, notificationTitle, maxRetries, uploadType, null);
+    }
+
+    /**
+     * Same as {@link #startUpload(List, String, Map, Map, String, String, int, String)}, using the
+     * given upload ID instead of a generated one when {@code uploadId} is not null.
+     */
+    public String startUpload(
+        List<UploadFile> files,
+        String serverUrl,
+        Map<String, String> headers,
+        Map<String, String> parameters,
+        String httpMethod,
+        String notificationTitle,
+        int maxRetries,
+        String uploadType,
+        String uploadId
     ) throws Exception {
         UploadNotificationConfig notificationConfig = createNotificationConfig(notificationTitle);
 
@@ -82,7 +251,7 @@ public class Uploader {
             if (files == null || files.isEmpty()) {
                 throw new IllegalArgumentException("Missing required parameter: files");
             }
-            return startMultipartUpload(files, serverUrl, headers, parameters, httpMethod, notificationConfig, maxRetries);
+            return startMultipartUpload(files, serverUrl, headers, parameters, httpMethod, notificationConfig, maxRetries, uploadId);
         } else {
             if (files == null || files.isEmpty()) {
                 throw new IllegalArgumentException("Missing required parameter: filePath or files");
@@ -99,7 +268,8 @@ public class Uploader {
                 httpMethod,
                 notificationConfig,
                 maxRetries,
-                file.mimeType
+                file.mimeType,
+                uploadId
             );
         }
     }
@@ -111,7 +281,8 @@ public class Uploader {
         Map<String, String> parameters,
         String httpMethod,
         UploadNotificationConfig notificationConfig,
-        int maxRetries
+        int maxRetries,
+        String uploadId
     ) throws Exception {
         String boundary = UUID.randomUUID().toString();
         File tempBody = writeMultipartBodyToFile(files, parameters, boundary);
@@ -120,10 +291,13 @@ public class Uploader {
             BinaryUploadRequest request = new BinaryUploadRequest(context, serverUrl)
                 .setMethod(httpMethod)
                 .setFileToUpload(tempBody.getAbsolutePath())
-                .setNotificationConfig((ctx, uploadId) -> notificationConfig)
+                .setNotificationConfig((ctx, id) -> notificationConfig)
                 .setMaxRetries(maxRetries)
                 .setUsesFixedLengthStreamingMode(true);
 
+            if (uploadId != null) {
+                request.setUploadID(uploadId);
+            }
             request.addHeader("Content-Type", "multipart/form-data; boundary=" + boundary);
 
             for (Map.Entry<String, String> entry : headers.entrySet()) {
@@ -132,9 +306,9 @@ public class Uploader {
                 }
             }
 
-            String uploadId = request.startUpload();
-            tempMultipartBodies.put(uploadId, tempBody);
-            return uploadId;
+            String startedId = request.startUpload();
+            tempMultipartBodies.put(startedId, tempBody);
+            return startedId;
         } catch (Exception e) {
             if (!tempBody.delete()) {
                 tempBody.deleteOnExit();
@@ -144,36 +318,81 @@ public class Uploader {
     }
 
     private File writeMultipartBodyToFile(List<UploadFile> files, Map<String, String> parameters, String boundary) throws IOException {
-        File tempFile = File.createTempFile("upload-", ".tmp", context.getCacheDir());
+        List<String> filePaths = new ArrayList<>(files.size());
+        for (UploadFile file : files) {
+            if (file == null || file.filePath == null || file.filePath.isEmpty()) {
+                throw new IllegalArgumentException("Invalid file entry in files");
+            }
+            filePaths.add(file.filePath);
+        }
+        Map<String, FileMetadataResolver.FileMetadata> metadata = metadataResolver.resolveAll(filePaths);
 
-        try (FileOutputStream output = new FileOutputStream(tempFile)) {
-            if (parameters != null) {
-                for (Map.Entry<String, String> entry : parameters.entrySet()) {
-                    if (entry.getKey() == null || entry.getValue() == null) {
-                        continue;
-                    }
-                    writeUtf8(output, "--" + boundary + "\r\n");
-                    writeUtf8(output, "Content-Disposition: form-data; name=\"" + entry.getKey() + "\"\r\n\r\n");
-                    writeUtf8(output, entry.getValue() + "\r\n");
+        StringBuilder fieldsSection = new StringBuilder();
+        if (parameters != null) {
+            for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                if (entry.getKey() == null || entry.getValue() == null) {
+                    continue;
                 }
+                fieldsSection.append("--").append(boundary).append("\r\n");
+                fieldsSection.append("Content-Disposition: form-data; name=\"").append(entry.getKey()).append("\"\r\n\r\n");
+                fieldsSection.append(entry.getValue()).append("\r\n");
             }
+        }
 
-            for (UploadFile file : files) {
-                if (file == null || file.filePath == null || file.filePath.isEmpty()) {
-                    throw new IllegalArgumentException("Invalid file entry in files");
-                }
+        List<String> partHeaders = new ArrayList<>(files.size());
+        long expectedLength = utf8Length(fieldsSection.toString());
+        for (UploadFile file : files) {
+            FileMetadataResolver.FileMetadata fileMetadata = metadata.get(file.filePath);
+            String fieldName = (file.fieldName == null || file.fieldName.isEmpty()) ? "file" : file.fieldName;
+            String fileName = fileMetadata != null ? fileMetadata.displayName : null;
+            if (fileName == null || fileName.isEmpty()) {
+                fileName = "file";
+            }
+            String mimeType = file.mimeType;
+            if ((mimeType == null || mimeType.isEmpty()) && fileMetadata != null) {
+                mimeType = fileMetadata.mimeType;
+            }
+            if (mimeType == null || mimeType.isEmpty()) {
+                mimeType = "application/octet-stream";
+            }
 
-                String fieldName = (file.fieldName == null || file.fieldName.isEmpty()) ? "file" : file.fieldName;
-                String fileName = getFileNameFromUri(Uri.parse(file.filePath));
-                if (fileName == null || fileName.isEmpty()) {
-                    fileName = "file";
-                }
-                String mimeType = (file.mimeType == null || file.mimeType.isEmpty()) ? "application/octet-stream" : file.mimeType;
+            String header =
+                "--" +
+                boundary +
+                "\r\n" +
+                "Content-Disposition: form-data; name=\"" +
+                fieldName +
+                "\"; filename=\"" +
+                fileName +
+                "\"\r\n" +
+                "Content-Type: " +
+                mimeType +
+                "\r\n\r\n";
+            partHeaders.add(header);
+
+            if (expectedLength >= 0 && fileMetadata != null && fileMetadata.hasSize()) {
+                expectedLength += utf8Length(header) + fileMetadata.size + 2;
+            } else {
+                expectedLength = -1;
+            }
+        }
 
-                writeUtf8(output, "--" + boundary + "\r\n");
-                writeUtf8(output, "Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + fileName + "\"\r\n");
-                writeUtf8(output, "Content-Type: " + mimeType + "\r\n\r\n");
-                streamFileToOutput(file.filePath, output);
+        File cacheDir = context.getCacheDir();
+        if (expectedLength >= 0) {
+            expectedLength += utf8Length("--" + boundary + "--\r\n");
+            if (expectedLength > cacheDir.getUsableSpace()) {
+                throw new IOException("Not enough free space to stage multipart body (" + expectedLength + " bytes)");
+            }
+        }
+
+        File tempFile = File.createTempFile("upload-", ".tmp", cacheDir);
+
+        try (FileOutputStream output = new FileOutputStream(tempFile)) {
+            writeUtf8(output, fieldsSection.toString());
+
+            for (int i = 0; i < files.size(); i++) {
+                writeUtf8(output, partHeaders.get(i));
+                streamFileToOutput(files.get(i).filePath, output);
                 writeUtf8(output, "\r\n");
             }
 
@@ -188,6 +407,10 @@ public class Uploader {
         return tempFile;
     }
 
+    private static long utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
     private void writeUtf8(OutputStream output, String value) throws IOException {
         output.write(value.getBytes(StandardCharsets.UTF_8));
     }
@@ -237,14 +460,19 @@ public class Uploader {
         String httpMethod,
         UploadNotificationConfig notificationConfig,
         int maxRetries,
-        String mimeType
+        String mimeType,
+        String uploadId
     ) throws Exception {
         BinaryUploadRequest request = new BinaryUploadRequest(context, serverUrl)
             .setMethod(httpMethod)
             .setFileToUpload(filePath)
-            .setNotificationConfig((ctx, uploadId) -> notificationConfig)
+            .setNotificationConfig((ctx, id) -> notificationConfig)
             .setMaxRetries(maxRetries);
 
+        if (uploadId != null) {
+            request.setUploadID(uploadId);
+        }
+
         if (mimeType != null && !mimeType.isEmpty()) {
             request.addHeader("Content-Type", mimeType);
         }
@@ -264,9 +492,278 @@ public class Uploader {
         return request.startUpload();
     }
 
+    public String startDirectoryUpload(
+        String directoryPath,
+        List<String> include,
+        List<String> exclude,
+        boolean recursive,
+        int maxConcurrentUploads,
+        final String fieldName,
+        final String serverUrl,
+        final Map<String, String> headers,
+        final Map<String, String> parameters,
+        final String httpMethod,
+        final String notificationTitle,
+        final int maxRetries,
+        final String uploadType,
+        DirectoryUpload.Listener listener
+    ) {
+        File root = new File(directoryPath);
+        if (!root.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + directoryPath);
+        }
+
+        String directoryId = UUID.randomUUID().toString();
+        DirectoryUpload directoryUpload = new DirectoryUpload(
+            directoryId,
+            root,
+            new GlobMatcher(include),
+            new GlobMatcher(exclude),
+            recursive,
+            maxConcurrentUploads,
+            (file, uploadId) -> {
+                String path = file.getAbsolutePath();
+                List<UploadFile> files = new ArrayList<>(1);
+                files.add(new UploadFile(path, fieldName, FileMetadataResolver.getMimeTypeFromExtension(path)));
+                startUpload(files, serverUrl, headers, parameters, httpMethod, notificationTitle, maxRetries, uploadType, uploadId);
+            },
+            listener
+        );
+        directoryUploads.put(directoryId, directoryUpload);
+        workerExecutor.execute(directoryUpload);
+        return directoryId;
+    }
+
+    /**
+     * Returns the directory upload that started {@code uploadId}, or {@code null} for standalone uploads.
+     */
+    public String getDirectoryUploadId(String uploadId) {
+        for (DirectoryUpload directoryUpload : directoryUploads.values()) {
+            if (directoryUpload.owns(uploadId)) {
+                return directoryUpload.getId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Uploads only the blocks of {@code file} that changed since the last successful upload with the
+     * same {@code cacheKey}, as a patch sent to {@code patchUrl}. When no previous signature is
+     * known the whole file is uploaded to {@code serverUrl} like {@link #startUpload}. The upload ID
+     * is returned immediately; signature loading and patch encoding run in the background.
+     */
+    public String startDeltaUpload(
+        final UploadFile file,
+        final String serverUrl,
+        final String patchUrl,
+        String signatureUrl,
+        String cacheKey,
+        int blockSize,
+        final Map<String, String> headers,
+        final Map<String, String> parameters,
+        final String httpMethod,
+        final String notificationTitle,
+        final int maxRetries,
+        final String uploadType,
+        final DeltaUpload.Listener listener
+    ) {
+        if (file == null || file.filePath == null || file.filePath.isEmpty()) {
+            throw new IllegalArgumentException("Missing required parameter: filePath");
+        }
+        if (blockSize < DeltaSignature.MIN_BLOCK_SIZE || blockSize > DeltaSignature.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException(
+                "delta.blockSize must be between " + DeltaSignature.MIN_BLOCK_SIZE + " and " + DeltaSignature.MAX_BLOCK_SIZE
+            );
+        }
+        if (cacheKey == null || cacheKey.isEmpty()) {
+            cacheKey = patchUrl + "\n" + file.filePath;
+        }
+
+        // The file is expected to have changed since it was last resolved.
+        metadataResolver.invalidate(file.filePath);
+        FileMetadataResolver.FileMetadata metadata = metadataResolver.resolve(file.filePath);
+
+        String uploadId = UUID.randomUUID().toString();
+        DeltaUpload deltaUpload = new DeltaUpload(
+            uploadId,
+            () -> openInputStream(file.filePath),
+            metadata != null ? metadata.size : FileMetadataResolver.FileMetadata.UNKNOWN_SIZE,
+            signatureUrl,
+            headers,
+            new File(new File(context.getFilesDir(), SIGNATURE_DIR), sha1Hex(cacheKey) + ".sig"),
+            blockSize,
+            context.getCacheDir(),
+            new DeltaUpload.Starter() {
+                @Override
+                public void startPatchUpload(File patchFile, String id) throws Exception {
+                    startBinaryUpload(
+                        patchFile.getAbsolutePath(),
+                        patchUrl,
+                        headers,
+                        new HashMap<>(),
+                        httpMethod,
+                        createNotificationConfig(notificationTitle),
+                        maxRetries,
+                        DeltaUpload.PATCH_CONTENT_TYPE,
+                        id
+                    );
+                }
+
+                @Override
+                public void startFullUpload(String id) throws Exception {
+                    startUpload(
+                        Collections.singletonList(file),
+                        serverUrl,
+                        headers,
+                        parameters,
+                        httpMethod,
+                        notificationTitle,
+                        maxRetries,
+                        uploadType,
+                        id
+                    );
+                }
+            },
+            (id, exception) -> {
+                deltaUploads.remove(id);
+                unregisterIfIdle();
+                listener.onDeltaFailed(id, exception);
+            }
+        );
+        deltaUploads.put(uploadId, deltaUpload);
+        workerExecutor.execute(deltaUpload);
+        return uploadId;
+    }
+
+    private static String sha1Hex(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void onDirectoryEnumerationFinished(String directoryId) {
+        DirectoryUpload directoryUpload = directoryUploads.get(directoryId);
+        if (directoryUpload != null && directoryUpload.isFinished()) {
+            directoryUploads.remove(directoryId);
+            unregisterIfIdle();
+        }
+    }
+
+    public String openUploadStream(
+        String serverUrl,
+        String httpMethod,
+        Map<String, String> headers,
+        long maxBufferedBytes,
+        int maxRetries,
+        boolean spillToDisk,
+        long maxSpillBytes,
+        final UploadStream.Listener listener
+    ) {
+        String streamId = UUID.randomUUID().toString();
+        UploadStream uploadStream = new UploadStream(
+            streamId,
+            serverUrl,
+            httpMethod,
+            headers,
+            maxBufferedBytes,
+            maxRetries,
+            spillToDisk ? context.getCacheDir() : null,
+            maxSpillBytes,
+            new UploadStream.Listener() {
+                @Override
+                public void onFinished(String id, int statusCode, long bytesSent) {
+                    uploadStreams.remove(id);
+                    listener.onFinished(id, statusCode, bytesSent);
+                }
+
+                @Override
+                public void onFailed(String id, int statusCode, Exception exception) {
+                    uploadStreams.remove(id);
+                    listener.onFailed(id, statusCode, exception);
+                }
+            }
+        );
+        uploadStreams.put(streamId, uploadStream);
+        workerExecutor.execute(uploadStream);
+        return streamId;
+    }
+
+    public void writeUploadStream(String streamId, byte[] data, UploadStream.WriteCallback callback) {
+        getUploadStream(streamId).write(data, callback);
+    }
+
+    public void finishUploadStream(String streamId) {
+        getUploadStream(streamId).finish();
+    }
+
+    private UploadStream getUploadStream(String streamId) {
+        UploadStream uploadStream = uploadStreams.get(streamId);
+        if (uploadStream == null) {
+            throw new IllegalArgumentException("Upload stream not found: " + streamId);
+        }
+        return uploadStream;
+    }
+
     public void removeUpload(String uploadId) {
+        UploadStream uploadStream = uploadStreams.remove(uploadId);
+        if (uploadStream != null) {
+            uploadStream.cancel();
+            return;
+        }
+        DirectoryUpload directoryUpload = directoryUploads.remove(uploadId);
+        if (directoryUpload != null) {
+            for (String activeUploadId : directoryUpload.cancel()) {
+                clearTempMultipartBody(activeUploadId);
+                UploadService.stopUpload(activeUploadId);
+            }
+            return;
+        }
+        DeltaUpload deltaUpload = deltaUploads.get(uploadId);
+        if (deltaUpload != null && deltaUpload.cancel()) {
+            // Still preparing: no upload was started, so no completion will clean it up.
+            deltaUploads.remove(uploadId);
+            return;
+        }
         clearTempMultipartBody(uploadId);
-        net.gotev.uploadservice.UploadService.stopUpload(uploadId);
+        UploadService.stopUpload(uploadId);
+    }
+
+    /**
+     * HTTP 409 and 412 on a patch upload mean the server no longer has the patch's base version.
+     */
+    private static boolean isPatchRejection(Throwable exception) {
+        if (!(exception instanceof UploadError)) {
+            return false;
+        }
+        int statusCode = ((UploadError) exception).getServerResponse().getCode();
+        return statusCode == 409 || statusCode == 412;
+    }
+
+    /**
+     * Waits until the upload service has released {@code uploadId}, so it can be reused. Returns
+     * false if it still holds the ID after {@link #TASK_EXIT_WAIT_MS}.
+     */
+    private static boolean awaitTaskExit(String uploadId) {
+        long deadline = System.currentTimeMillis() + TASK_EXIT_WAIT_MS;
+        while (UploadService.getTaskList().contains(uploadId)) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(TASK_EXIT_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
     }
 
     private UploadNotificationConfig createNotificationConfig(String notificationTitle) {
@@ -290,28 +787,4 @@ public class Uploader {
             cancelled
         );
     }
-
-    private String getFileNameFromUri(Uri uri) {
-        String result = null;
-        if ("content".equals(uri.getScheme())) {
-            try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int index = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                    if (index != -1) {
-                        result = cursor.getString(index);
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-        if (result == null) {
-            String path = uri.getPath();
-            if (path != null) {
-                int cut = path.lastIndexOf('/');
-                result = cut != -1 ? path.substring(cut + 1) : path;
-            }
-        }
-        return result;
-    }
 }
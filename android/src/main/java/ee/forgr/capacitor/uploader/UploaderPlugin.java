@@ -6,23 +6,35 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
 import android.util.Log;
-import android.webkit.MimeTypeMap;
 import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.gotev.uploadservice.UploadService;
 import net.gotev.uploadservice.data.UploadInfo;
 import net.gotev.uploadservice.network.ServerResponse;
-import net.gotev.uploadservice.observer.request.RequestObserver;
 import net.gotev.uploadservice.observer.request.RequestObserverDelegate;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -35,7 +47,7 @@ public class UploaderPlugin extends Plugin {
 
     private final String pluginVersion = "8.3.6";
 
-    private Uploader implementation;
+    private volatile Uploader implementation;
 
     private static final String CHANNEL_ID = "ee.forgr.capacitor.uploader.notification_channel_id";
     private static final String CHANNEL_NAME = "Uploader Notifications";
@@ -43,46 +55,189 @@ public class UploaderPlugin extends Plugin {
 
     private static final String PREFS_NAME = "CapacitorUploaderPrefs";
     private static final String PENDING_EVENTS_KEY = "pending_events";
+    private static final String PENDING_EVENTS_SEQUENCE_KEY = "pending_events_sequence";
+    // Stored with each pending event to give getPendingEvents a cursor that survives acknowledgements.
+    private static final String SEQUENCE_FIELD = "_sequence";
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final long REPLAY_PAGE_WAIT_MS = 1000;
     private static final String TAG = "UploaderPlugin";
 
-    private void saveEventToPrefs(String eventId, JSObject event) {
-        SharedPreferences prefs = getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String existingJson = prefs.getString(PENDING_EVENTS_KEY, "{}");
-        try {
-            JSONObject pendingEvents = new JSONObject(existingJson);
-            pendingEvents.put(eventId, new JSONObject(event.toString()));
-            prefs.edit().putString(PENDING_EVENTS_KEY, pendingEvents.toString()).apply();
-        } catch (JSONException e) {
-            Log.e(TAG, "Failed to persist upload event", e);
+    private final Object prefsLock = new Object();
+    // Parsed pending events and their order by sequence number, guarded by prefsLock.
+    private JSONObject pendingEventsCache;
+    private final TreeMap<Long, String> pendingEventOrder = new TreeMap<>();
+    private final ExecutorService eventExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean replayStarted = new AtomicBoolean(false);
+
+    private static class EventPage {
+
+        final List<JSObject> events = new ArrayList<>();
+        Long next;
+    }
+
+    /**
+     * Creates the uploader and its notification channel on first use instead of in {@link #load()},
+     * which runs while the app is starting.
+     */
+    private Uploader getImplementation() {
+        Uploader current = implementation;
+        if (current == null) {
+            synchronized (this) {
+                current = implementation;
+                if (current == null) {
+                    createNotificationChannel();
+                    current = new Uploader(getContext().getApplicationContext());
+                    current.setRequestObserverDelegate(requestObserverDelegate);
+                    implementation = current;
+                }
+            }
         }
+        return current;
     }
 
-    private void removeEventFromPrefs(String eventId) {
-        SharedPreferences prefs = getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String existingJson = prefs.getString(PENDING_EVENTS_KEY, "{}");
+    /**
+     * Parses the persisted events, giving a sequence number to entries stored by older versions.
+     */
+    private JSONObject loadPendingEvents(SharedPreferences prefs) {
+        JSONObject pendingEvents;
+        try {
+            pendingEvents = new JSONObject(prefs.getString(PENDING_EVENTS_KEY, "{}"));
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to read pending upload events", e);
+            return new JSONObject();
+        }
+        long sequence = prefs.getLong(PENDING_EVENTS_SEQUENCE_KEY, 0);
+        boolean migrated = false;
+        Iterator<String> keys = pendingEvents.keys();
         try {
-            JSONObject pendingEvents = new JSONObject(existingJson);
-            pendingEvents.remove(eventId);
-            prefs.edit().putString(PENDING_EVENTS_KEY, pendingEvents.toString()).apply();
+            while (keys.hasNext()) {
+                JSONObject stored = pendingEvents.optJSONObject(keys.next());
+                if (stored != null && !stored.has(SEQUENCE_FIELD)) {
+                    stored.put(SEQUENCE_FIELD, ++sequence);
+                    migrated = true;
+                }
+            }
         } catch (JSONException e) {
-            Log.e(TAG, "Failed to remove upload event from prefs", e);
+            Log.e(TAG, "Failed to migrate pending upload events", e);
+        }
+        if (migrated) {
+            prefs.edit().putString(PENDING_EVENTS_KEY, pendingEvents.toString()).putLong(PENDING_EVENTS_SEQUENCE_KEY, sequence).apply();
         }
+        return pendingEvents;
     }
 
-    private void replayPendingEvents() {
-        SharedPreferences prefs = getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String existingJson = prefs.getString(PENDING_EVENTS_KEY, "{}");
-        try {
-            JSONObject pendingEvents = new JSONObject(existingJson);
-            Iterator<String> keys = pendingEvents.keys();
+    /**
+     * Returns the pending events, parsed from preferences on first use and then kept in memory
+     * along with an index by sequence number. Callers must hold {@link #prefsLock}.
+     */
+    private JSONObject pendingEvents(SharedPreferences prefs) {
+        if (pendingEventsCache == null) {
+            pendingEventsCache = loadPendingEvents(prefs);
+            Iterator<String> keys = pendingEventsCache.keys();
             while (keys.hasNext()) {
                 String eventId = keys.next();
-                JSONObject eventJson = pendingEvents.getJSONObject(eventId);
-                JSObject event = JSObject.fromJSONObject(eventJson);
+                JSONObject stored = pendingEventsCache.optJSONObject(eventId);
+                if (stored != null) {
+                    pendingEventOrder.put(stored.optLong(SEQUENCE_FIELD, 0), eventId);
+                }
+            }
+        }
+        return pendingEventsCache;
+    }
+
+    private void saveEventToPrefs(String eventId, JSObject event) {
+        synchronized (prefsLock) {
+            SharedPreferences prefs = getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            try {
+                JSONObject pendingEvents = pendingEvents(prefs);
+                long sequence = prefs.getLong(PENDING_EVENTS_SEQUENCE_KEY, 0) + 1;
+                JSONObject stored = new JSONObject(event.toString());
+                stored.put(SEQUENCE_FIELD, sequence);
+                pendingEvents.put(eventId, stored);
+                pendingEventOrder.put(sequence, eventId);
+                prefs.edit().putString(PENDING_EVENTS_KEY, pendingEvents.toString()).putLong(PENDING_EVENTS_SEQUENCE_KEY, sequence).apply();
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to persist upload event", e);
+            }
+        }
+    }
+
+    private void removeEventFromPrefs(String eventId) {
+        synchronized (prefsLock) {
+            SharedPreferences prefs = getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            JSONObject pendingEvents = pendingEvents(prefs);
+            Object removed = pendingEvents.remove(eventId);
+            if (removed != null) {
+                if (removed instanceof JSONObject) {
+                    pendingEventOrder.remove(((JSONObject) removed).optLong(SEQUENCE_FIELD, 0));
+                }
+                prefs.edit().putString(PENDING_EVENTS_KEY, pendingEvents.toString()).apply();
+            }
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} events stored after the {@code after} cursor, in the order they
+     * were persisted. {@code next} is set when more events remain. Only the returned events are
+     * read, so paging through a large backlog stays linear overall.
+     */
+    private EventPage pendingEventsPage(long after, int limit) {
+        EventPage page = new EventPage();
+        synchronized (prefsLock) {
+            JSONObject pendingEvents = pendingEvents(getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+            long lastSequence = after;
+            for (Map.Entry<Long, String> entry : pendingEventOrder.tailMap(after, false).entrySet()) {
+                if (page.events.size() == limit) {
+                    page.next = lastSequence;
+                    break;
+                }
+                lastSequence = entry.getKey();
+                JSONObject stored = pendingEvents.optJSONObject(entry.getValue());
+                if (stored == null) {
+                    continue;
+                }
+                try {
+                    JSObject event = JSObject.fromJSONObject(stored);
+                    event.remove(SEQUENCE_FIELD);
+                    page.events.add(event);
+                } catch (JSONException e) {
+                    Log.e(TAG, "Skipping unreadable pending upload event", e);
+                }
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Re-emits persisted events off the main thread, one page at a time. Each page is only sent once
+     * the main thread has delivered the previous one, so a large backlog does not flood the WebView,
+     * and replay stops once no listener is left. Events acknowledged during replay have already
+     * left the in-memory index, so they are not sent again.
+     */
+    private void replayPendingEvents() {
+        long after = 0;
+        while (hasListeners("events")) {
+            EventPage page = pendingEventsPage(after, DEFAULT_PAGE_SIZE);
+            for (JSObject event : page.events) {
                 notifyListeners("events", event);
             }
-        } catch (JSONException e) {
-            Log.e(TAG, "Failed to replay pending upload events", e);
+            if (page.next == null || !awaitMainThread()) {
+                return;
+            }
+            after = page.next;
+        }
+    }
+
+    private boolean awaitMainThread() {
+        CountDownLatch drained = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(drained::countDown);
+        try {
+            // A busy main thread only delays the next page; replay continues after the timeout.
+            drained.await(REPLAY_PAGE_WAIT_MS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
@@ -99,81 +254,215 @@ public class UploaderPlugin extends Plugin {
 
     @Override
     public void load() {
-        createNotificationChannel();
-
-        // Create a request observer for all uploads
-        RequestObserver observer = new RequestObserver(
-            getContext().getApplicationContext(),
-            getActivity(),
-            new RequestObserverDelegate() {
-                @Override
-                public void onProgress(Context context, UploadInfo uploadInfo) {
-                    JSObject event = new JSObject();
-                    event.put("name", "uploading");
-                    JSObject payload = new JSObject();
-                    payload.put("percent", uploadInfo.getProgressPercent());
-                    event.put("payload", payload);
-                    event.put("id", uploadInfo.getUploadId());
-                    notifyListeners("events", event);
-                }
+        // Uploads still running from an earlier plugin instance need an observer to report to JS;
+        // otherwise the uploader is created on first use.
+        if (!UploadService.getTaskList().isEmpty()) {
+            getImplementation();
+        }
+    }
 
-                @Override
-                public void onSuccess(Context context, UploadInfo uploadInfo, ServerResponse serverResponse) {
-                    implementation.clearTempMultipartBody(uploadInfo.getUploadId());
-                    JSObject event = new JSObject();
-                    event.put("name", "completed");
-                    JSObject payload = new JSObject();
-                    payload.put("statusCode", serverResponse.getCode());
-                    event.put("payload", payload);
-                    event.put("id", uploadInfo.getUploadId());
-                    String eventId = UUID.randomUUID().toString();
-                    event.put("eventId", eventId);
-                    saveEventToPrefs(eventId, event);
-                    notifyListeners("events", event);
-                }
+    private final RequestObserverDelegate requestObserverDelegate = new RequestObserverDelegate() {
+        @Override
+        public void onProgress(Context context, UploadInfo uploadInfo) {
+            JSObject event = new JSObject();
+            event.put("name", "uploading");
+            JSObject payload = new JSObject();
+            payload.put("percent", uploadInfo.getProgressPercent());
+            event.put("payload", payload);
+            event.put("id", uploadInfo.getUploadId());
+            putDirectoryId(event, uploadInfo.getUploadId());
+            notifyListeners("events", event);
+        }
 
-                @Override
-                public void onError(Context context, UploadInfo uploadInfo, Throwable exception) {
-                    implementation.clearTempMultipartBody(uploadInfo.getUploadId());
-                    JSObject event = new JSObject();
-                    event.put("name", "failed");
-                    JSObject payload = new JSObject();
-                    payload.put("error", exception.getMessage());
-                    event.put("payload", payload);
-                    event.put("id", uploadInfo.getUploadId());
-                    String eventId = UUID.randomUUID().toString();
-                    event.put("eventId", eventId);
-                    saveEventToPrefs(eventId, event);
-                    notifyListeners("events", event);
-                }
+        @Override
+        public void onSuccess(Context context, UploadInfo uploadInfo, ServerResponse serverResponse) {
+            JSObject event = new JSObject();
+            event.put("name", "completed");
+            JSObject payload = new JSObject();
+            payload.put("statusCode", serverResponse.getCode());
+            event.put("payload", payload);
+            event.put("id", uploadInfo.getUploadId());
+            putDirectoryId(event, uploadInfo.getUploadId());
+            String eventId = UUID.randomUUID().toString();
+            event.put("eventId", eventId);
+            saveEventToPrefs(eventId, event);
+            notifyListeners("events", event);
+        }
 
-                @Override
-                public void onCompleted(Context context, UploadInfo uploadInfo) {
-                    implementation.clearTempMultipartBody(uploadInfo.getUploadId());
-                    JSObject event = new JSObject();
-                    event.put("name", "finished");
-                    event.put("id", uploadInfo.getUploadId());
-                    notifyListeners("events", event);
-                }
+        @Override
+        public void onError(Context context, UploadInfo uploadInfo, Throwable exception) {
+            JSObject event = new JSObject();
+            event.put("name", "failed");
+            JSObject payload = new JSObject();
+            payload.put("error", exception.getMessage());
+            event.put("payload", payload);
+            event.put("id", uploadInfo.getUploadId());
+            putDirectoryId(event, uploadInfo.getUploadId());
+            String eventId = UUID.randomUUID().toString();
+            event.put("eventId", eventId);
+            saveEventToPrefs(eventId, event);
+            notifyListeners("events", event);
+        }
 
-                @Override
-                public void onCompletedWhileNotObserving() {
-                    replayPendingEvents();
-                }
+        @Override
+        public void onCompleted(Context context, UploadInfo uploadInfo) {
+            JSObject event = new JSObject();
+            event.put("name", "finished");
+            event.put("id", uploadInfo.getUploadId());
+            putDirectoryId(event, uploadInfo.getUploadId());
+            notifyListeners("events", event);
+        }
+
+        @Override
+        public void onCompletedWhileNotObserving() {}
+    };
+
+    @Override
+    protected void handleOnDestroy() {
+        eventExecutor.shutdownNow();
+        Uploader current = implementation;
+        if (current != null) {
+            current.destroy();
+        }
+        super.handleOnDestroy();
+    }
+
+    /**
+     * Replays persisted events once the first JS listener for them exists; events emitted earlier
+     * would have no one to reach. Later listeners only receive new events.
+     */
+    @Override
+    @PluginMethod(returnType = PluginMethod.RETURN_CALLBACK)
+    public void addListener(PluginCall call) {
+        super.addListener(call);
+        if ("events".equals(call.getString("eventName")) && replayStarted.compareAndSet(false, true)) {
+            eventExecutor.execute(this::replayPendingEvents);
+        }
+    }
+
+    private final DirectoryUpload.Listener directoryListener = new DirectoryUpload.Listener() {
+        @Override
+        public void onEnumerationProgress(String directoryId, long discoveredFiles, long discoveredBytes, boolean done) {
+            if (done) {
+                getImplementation().onDirectoryEnumerationFinished(directoryId);
+            }
+            JSObject event = new JSObject();
+            event.put("name", "enumerating");
+            JSObject payload = new JSObject();
+            payload.put("discoveredFiles", discoveredFiles);
+            payload.put("discoveredBytes", discoveredBytes);
+            payload.put("done", done);
+            event.put("payload", payload);
+            event.put("id", directoryId);
+            notifyListeners("events", event);
+        }
+
+        @Override
+        public void onFileFailed(String directoryId, File file, Exception exception) {
+            Log.e(TAG, "Failed to start upload for " + file, exception);
+            JSObject event = new JSObject();
+            event.put("name", "failed");
+            JSObject payload = new JSObject();
+            payload.put("error", exception.getMessage());
+            payload.put("filePath", file.getAbsolutePath());
+            event.put("payload", payload);
+            event.put("id", directoryId);
+            event.put("directoryId", directoryId);
+            notifyListeners("events", event);
+        }
+    };
+
+    private final DeltaUpload.Listener deltaListener = (uploadId, exception) -> {
+        Log.e(TAG, "Failed to prepare delta upload " + uploadId, exception);
+        JSObject payload = new JSObject();
+        payload.put("error", exception.getMessage());
+        notifyPersistedEvent("failed", uploadId, payload);
+
+        // No upload task was started, so the observer will not report the end of this upload.
+        JSObject finished = new JSObject();
+        finished.put("name", "finished");
+        finished.put("id", uploadId);
+        notifyListeners("events", finished);
+    };
+
+    private final Map<String, PluginCall> pendingStreamFinishes = new ConcurrentHashMap<>();
+
+    private final UploadStream.Listener streamListener = new UploadStream.Listener() {
+        @Override
+        public void onFinished(String streamId, int statusCode, long bytesSent) {
+            JSObject payload = new JSObject();
+            payload.put("statusCode", statusCode);
+            notifyPersistedEvent("completed", streamId, payload);
+
+            PluginCall call = pendingStreamFinishes.remove(streamId);
+            if (call != null) {
+                JSObject result = new JSObject();
+                result.put("statusCode", statusCode);
+                result.put("bytesSent", bytesSent);
+                call.resolve(result);
+            }
+        }
+
+        @Override
+        public void onFailed(String streamId, int statusCode, Exception exception) {
+            JSObject payload = new JSObject();
+            payload.put("error", exception.getMessage());
+            if (statusCode != -1) {
+                payload.put("statusCode", statusCode);
+            }
+            notifyPersistedEvent("failed", streamId, payload);
+
+            PluginCall call = pendingStreamFinishes.remove(streamId);
+            if (call != null) {
+                call.reject(exception.getMessage());
             }
-        );
+        }
+    };
+
+    private void notifyPersistedEvent(String name, String id, JSObject payload) {
+        JSObject event = new JSObject();
+        event.put("name", name);
+        event.put("payload", payload);
+        event.put("id", id);
+        String eventId = UUID.randomUUID().toString();
+        event.put("eventId", eventId);
+        saveEventToPrefs(eventId, event);
+        notifyListeners("events", event);
+    }
 
-        implementation = new Uploader(getContext().getApplicationContext());
-        replayPendingEvents();
+    private void putDirectoryId(JSObject event, String uploadId) {
+        String directoryId = getImplementation().getDirectoryUploadId(uploadId);
+        if (directoryId != null) {
+            event.put("directoryId", directoryId);
+        }
     }
 
     public static String getMimeType(String url) {
-        String type = null;
-        String extension = MimeTypeMap.getFileExtensionFromUrl(url);
-        if (extension != null) {
-            type = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        return FileMetadataResolver.getMimeTypeFromExtension(url);
+    }
+
+    /**
+     * Replaces missing MIME types with the provider-reported type (content URIs) or the extension
+     * mapping (file paths), resolving all files in one batch.
+     */
+    private void fillMissingMimeTypes(List<Uploader.UploadFile> files) {
+        List<String> unresolved = new ArrayList<>();
+        for (Uploader.UploadFile file : files) {
+            if (file.mimeType == null || file.mimeType.isEmpty()) {
+                unresolved.add(file.filePath);
+            }
+        }
+        if (unresolved.isEmpty()) {
+            return;
+        }
+        Map<String, FileMetadataResolver.FileMetadata> metadata = getImplementation().getMetadataResolver().resolveAll(unresolved);
+        for (int i = 0; i < files.size(); i++) {
+            Uploader.UploadFile file = files.get(i);
+            FileMetadataResolver.FileMetadata fileMetadata = metadata.get(file.filePath);
+            if ((file.mimeType == null || file.mimeType.isEmpty()) && fileMetadata != null && fileMetadata.mimeType != null) {
+                files.set(i, new Uploader.UploadFile(file.filePath, file.fieldName, fileMetadata.mimeType));
+            }
         }
-        return type;
     }
 
     @PluginMethod
@@ -202,6 +491,40 @@ public class UploaderPlugin extends Plugin {
         Map<String, String> parameters = JSObjectToMap(parametersObj);
 
         try {
+            JSObject directoryObj = call.getObject("directory", null);
+            JSObject deltaObj = call.getObject("delta", null);
+            if (directoryObj != null) {
+                if (deltaObj != null) {
+                    call.reject("Delta uploads do not support directory");
+                    return;
+                }
+                String directoryPath = directoryObj.getString("path");
+                if (directoryPath == null || directoryPath.isEmpty()) {
+                    call.reject("Missing required parameter: directory.path");
+                    return;
+                }
+                String id = getImplementation().startDirectoryUpload(
+                    resolveCapacitorPath(directoryPath),
+                    JSONArrayToList(directoryObj.optJSONArray("include")),
+                    JSONArrayToList(directoryObj.optJSONArray("exclude")),
+                    directoryObj.optBoolean("recursive", false),
+                    directoryObj.optInt("maxConcurrentUploads", 4),
+                    fileField,
+                    serverUrl,
+                    headers,
+                    parameters,
+                    httpMethod,
+                    notificationTitle,
+                    maxRetries,
+                    uploadType,
+                    directoryListener
+                );
+                JSObject result = new JSObject();
+                result.put("id", id);
+                call.resolve(result);
+                return;
+            }
+
             ArrayList<Uploader.UploadFile> filesToUpload = new ArrayList<>();
 
             if (filesArray != null && filesArray.length() > 0) {
@@ -224,9 +547,6 @@ public class UploaderPlugin extends Plugin {
                     } else {
                         mimeType = call.getString("mimeType", null);
                     }
-                    if (mimeType == null || mimeType.isEmpty()) {
-                        mimeType = getMimeType(localPath);
-                    }
 
                     filesToUpload.add(new Uploader.UploadFile(localPath, fieldName, mimeType));
                 }
@@ -236,11 +556,43 @@ public class UploaderPlugin extends Plugin {
                     return;
                 }
                 String localFilePath = resolveCapacitorPath(filePath);
-                String mimeType = call.getString("mimeType", getMimeType(localFilePath));
-                filesToUpload.add(new Uploader.UploadFile(localFilePath, fileField, mimeType));
+                filesToUpload.add(new Uploader.UploadFile(localFilePath, fileField, call.getString("mimeType", null)));
+            }
+
+            fillMissingMimeTypes(filesToUpload);
+
+            if (deltaObj != null) {
+                String patchUrl = deltaObj.getString("patchUrl");
+                if (patchUrl == null || patchUrl.isEmpty()) {
+                    call.reject("Missing required parameter: delta.patchUrl");
+                    return;
+                }
+                if (filesToUpload.size() != 1) {
+                    call.reject("Delta uploads only support a single file");
+                    return;
+                }
+                String id = getImplementation().startDeltaUpload(
+                    filesToUpload.get(0),
+                    serverUrl,
+                    patchUrl,
+                    deltaObj.getString("signatureUrl"),
+                    deltaObj.getString("cacheKey"),
+                    deltaObj.optInt("blockSize", DeltaSignature.DEFAULT_BLOCK_SIZE),
+                    headers,
+                    parameters,
+                    httpMethod,
+                    notificationTitle,
+                    maxRetries,
+                    uploadType,
+                    deltaListener
+                );
+                JSObject result = new JSObject();
+                result.put("id", id);
+                call.resolve(result);
+                return;
             }
 
-            String id = implementation.startUpload(
+            String id = getImplementation().startUpload(
                 filesToUpload,
                 serverUrl,
                 headers,
@@ -285,11 +637,11 @@ public class UploaderPlugin extends Plugin {
 
         try {
             String localFilePath = resolveCapacitorPath(filePath);
-            String mimeType = getMimeType(localFilePath);
             ArrayList<Uploader.UploadFile> filesToUpload = new ArrayList<>();
-            filesToUpload.add(new Uploader.UploadFile(localFilePath, fieldName, mimeType));
+            filesToUpload.add(new Uploader.UploadFile(localFilePath, fieldName, null));
+            fillMissingMimeTypes(filesToUpload);
 
-            String id = implementation.startUpload(filesToUpload, serverUrl, headers, fields, "POST", "File Upload", 2, "multipart");
+            String id = getImplementation().startUpload(filesToUpload, serverUrl, headers, fields, "POST", "File Upload", 2, "multipart");
             JSObject result = new JSObject();
             result.put("id", id);
             call.resolve(result);
@@ -306,13 +658,106 @@ public class UploaderPlugin extends Plugin {
             return;
         }
         try {
-            implementation.removeUpload(id);
+            getImplementation().removeUpload(id);
             call.resolve();
         } catch (Exception e) {
             call.reject(e.getMessage());
         }
     }
 
+    @PluginMethod
+    public void openUploadStream(PluginCall call) {
+        String serverUrl = call.getString("serverUrl");
+        if (serverUrl == null || serverUrl.isEmpty()) {
+            call.reject("Missing required parameter: serverUrl");
+            return;
+        }
+
+        JSObject headersObj = call.getObject("headers", new JSObject());
+        Map<String, String> headers = JSObjectToMap(headersObj);
+        String mimeType = call.getString("mimeType");
+        if (mimeType != null && !mimeType.isEmpty() && !headers.containsKey("Content-Type")) {
+            headers.put("Content-Type", mimeType);
+        }
+        String httpMethod = call.getString("method", "POST");
+        long maxBufferedBytes = call.getLong("maxBufferedBytes", 4L * 1024 * 1024);
+        int maxRetries = call.getInt("maxRetries", 0);
+        boolean spillToDisk = call.getBoolean("spillToDisk", false);
+        long maxSpillBytes = call.getLong("maxSpillBytes", 64L * 1024 * 1024);
+
+        try {
+            String id = getImplementation().openUploadStream(
+                serverUrl,
+                httpMethod,
+                headers,
+                maxBufferedBytes,
+                maxRetries,
+                spillToDisk,
+                maxSpillBytes,
+                streamListener
+            );
+            JSObject result = new JSObject();
+            result.put("id", id);
+            call.resolve(result);
+        } catch (Exception e) {
+            call.reject(e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void writeChunk(final PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            call.reject("Missing required parameter: id");
+            return;
+        }
+        String data = call.getString("data");
+        if (data == null) {
+            call.reject("Missing required parameter: data");
+            return;
+        }
+
+        try {
+            byte[] bytes = Base64.decode(data, Base64.DEFAULT);
+            getImplementation().writeUploadStream(
+                id,
+                bytes,
+                new UploadStream.WriteCallback() {
+                    @Override
+                    public void onAccepted(long bufferedBytes, long availableBytes) {
+                        JSObject result = new JSObject();
+                        result.put("bufferedBytes", bufferedBytes);
+                        result.put("availableBytes", availableBytes);
+                        call.resolve(result);
+                    }
+
+                    @Override
+                    public void onError(Exception exception) {
+                        call.reject(exception.getMessage());
+                    }
+                }
+            );
+        } catch (Exception e) {
+            call.reject(e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void finishUploadStream(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            call.reject("Missing required parameter: id");
+            return;
+        }
+        try {
+            pendingStreamFinishes.put(id, call);
+            getImplementation().finishUploadStream(id);
+        } catch (Exception e) {
+            pendingStreamFinishes.remove(id);
+            call.reject(e.getMessage());
+        }
+    }
+
     /**
      * Maps WebView URLs (e.g. http(s)://localhost/_capacitor_file_/...) to filesystem or content
      * paths, matching {@link com.getcapacitor.AndroidProtocolHandler}. Plain absolute paths and
@@ -362,6 +807,19 @@ public class UploaderPlugin extends Plugin {
         return map;
     }
 
+    private List<String> JSONArrayToList(JSONArray array) {
+        List<String> list = new ArrayList<>();
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                String value = array.optString(i, null);
+                if (value != null && !value.isEmpty()) {
+                    list.add(value);
+                }
+            }
+        }
+        return list;
+    }
+
     @PluginMethod
     public void acknowledgeEvent(PluginCall call) {
         String eventId = call.getString("eventId");
@@ -373,6 +831,37 @@ public class UploaderPlugin extends Plugin {
         call.resolve();
     }
 
+    @PluginMethod
+    public void getPendingEvents(PluginCall call) {
+        int limit = call.getInt("limit", DEFAULT_PAGE_SIZE);
+        if (limit < 1) {
+            call.reject("limit must be at least 1");
+            return;
+        }
+        long after = 0;
+        String cursor = call.getString("after");
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                after = Long.parseLong(cursor);
+            } catch (NumberFormatException e) {
+                call.reject("Invalid cursor: " + cursor);
+                return;
+            }
+        }
+
+        EventPage page = pendingEventsPage(after, limit);
+        JSArray events = new JSArray();
+        for (JSObject event : page.events) {
+            events.put(event);
+        }
+        JSObject result = new JSObject();
+        result.put("events", events);
+        if (page.next != null) {
+            result.put("next", String.valueOf(page.next));
+        }
+        call.resolve(result);
+    }
+
     @PluginMethod
     public void getPluginVersion(final PluginCall call) {
         try {
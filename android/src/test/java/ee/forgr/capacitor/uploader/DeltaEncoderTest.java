@@ -0,0 +1,145 @@
+package ee.forgr.capacitor.uploader;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class DeltaEncoderTest {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static DeltaSignature signatureOf(byte[] data) throws IOException {
+        return DeltaSignature.compute(new ByteArrayInputStream(data), BLOCK_SIZE);
+    }
+
+    private static byte[] encode(byte[] base, byte[] target) throws IOException {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        DeltaEncoder.encode(new ByteArrayInputStream(target), signatureOf(base), patch);
+        return patch.toByteArray();
+    }
+
+    /**
+     * Reference decoder for the patch format documented on {@link DeltaEncoder}.
+     */
+    private static byte[] apply(byte[] base, byte[] patch) throws Exception {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(patch));
+        byte[] magic = new byte[4];
+        input.readFully(magic);
+        assertArrayEquals(DeltaEncoder.MAGIC, magic);
+        assertEquals(DeltaEncoder.VERSION, input.readUnsignedByte());
+        int blockSize = input.readInt();
+        assertEquals(base.length, input.readLong());
+        byte[] baseDigest = new byte[16];
+        input.readFully(baseDigest);
+        assertArrayEquals(MessageDigest.getInstance("MD5").digest(base), baseDigest);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        while (true) {
+            int op = input.readUnsignedByte();
+            if (op == DeltaEncoder.OP_COPY) {
+                int start = input.readInt();
+                int count = input.readInt();
+                int from = start * blockSize;
+                output.write(base, from, Math.min(count * blockSize, base.length - from));
+            } else if (op == DeltaEncoder.OP_LITERAL) {
+                byte[] literal = new byte[input.readInt()];
+                input.readFully(literal);
+                output.write(literal);
+            } else {
+                assertEquals(DeltaEncoder.OP_END, op);
+                byte[] result = output.toByteArray();
+                assertEquals(result.length, input.readLong());
+                byte[] digest = new byte[16];
+                input.readFully(digest);
+                assertArrayEquals(MessageDigest.getInstance("MD5").digest(result), digest);
+                assertEquals(-1, input.read());
+                return result;
+            }
+        }
+    }
+
+    @Test
+    public void unchangedFileIsOnlyBlockReferences() throws Exception {
+        byte[] base = randomBytes(300 * BLOCK_SIZE, 1);
+        byte[] patch = encode(base, base);
+        assertArrayEquals(base, apply(base, patch));
+        assertTrue("patch is " + patch.length + " bytes", patch.length < 100);
+    }
+
+    @Test
+    public void smallEditsProduceSmallPatch() throws Exception {
+        byte[] base = randomBytes(1024 * BLOCK_SIZE, 2);
+        byte[] target = base.clone();
+        // Overwrite a few bytes, insert a run in the middle and append a tail: offsets shift.
+        target[10_000] ^= 0x55;
+        byte[] inserted = randomBytes(777, 3);
+        byte[] shifted = new byte[target.length + inserted.length];
+        int at = 500 * BLOCK_SIZE + 13;
+        System.arraycopy(target, 0, shifted, 0, at);
+        System.arraycopy(inserted, 0, shifted, at, inserted.length);
+        System.arraycopy(target, at, shifted, at + inserted.length, target.length - at);
+        target = Arrays.copyOf(shifted, shifted.length + 100);
+
+        byte[] patch = encode(base, target);
+        assertArrayEquals(target, apply(base, patch));
+        assertTrue("patch is " + patch.length + " bytes", patch.length < 6 * BLOCK_SIZE);
+    }
+
+    @Test
+    public void unrelatedContentRoundTrips() throws Exception {
+        byte[] base = randomBytes(50 * BLOCK_SIZE + 17, 4);
+        byte[] target = randomBytes(200 * BLOCK_SIZE + 3, 5);
+        assertArrayEquals(target, apply(base, encode(base, target)));
+        assertArrayEquals(new byte[0], apply(base, encode(base, new byte[0])));
+        assertArrayEquals(target, apply(new byte[0], encode(new byte[0], target)));
+    }
+
+    @Test
+    public void encoderReturnsSignatureOfNewVersion() throws Exception {
+        byte[] base = randomBytes(64 * BLOCK_SIZE, 6);
+        byte[] target = randomBytes(70 * BLOCK_SIZE + 5, 7);
+        DeltaEncoder.Result result = DeltaEncoder.encode(new ByteArrayInputStream(target), signatureOf(base), new ByteArrayOutputStream());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        signatureOf(target).write(expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        result.signature.write(actual);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+        DeltaSignature read = DeltaSignature.read(new ByteArrayInputStream(actual.toByteArray()));
+        assertEquals(71, read.getBlockCount());
+        assertEquals(BLOCK_SIZE, read.getBlockSize());
+    }
+
+    @Test
+    public void oversizedSignatureHeaderIsRejected() throws Exception {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(header);
+        data.write(DeltaSignature.MAGIC);
+        data.writeByte(DeltaSignature.VERSION);
+        data.writeInt(BLOCK_SIZE);
+        data.writeLong((long) Integer.MAX_VALUE * BLOCK_SIZE);
+        data.write(new byte[16]);
+        data.writeInt(Integer.MAX_VALUE);
+        try {
+            DeltaSignature.read(new ByteArrayInputStream(header.toByteArray()), 1000);
+            fail("expected the block count to be rejected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("blocks"));
+        }
+    }
+}
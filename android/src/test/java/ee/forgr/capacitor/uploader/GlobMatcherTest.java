@@ -0,0 +1,66 @@
+package ee.forgr.capacitor.uploader;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class GlobMatcherTest {
+
+    @Test
+    public void namePatternMatchesAtAnyDepth() {
+        GlobMatcher matcher = new GlobMatcher(Collections.singletonList("*.jpg"));
+        assertTrue(matcher.matches("a.jpg"));
+        assertTrue(matcher.matches("day1/cam2/a.jpg"));
+        assertFalse(matcher.matches("a.jpeg"));
+        assertFalse(matcher.matches("a.jpg/b.png"));
+    }
+
+    @Test
+    public void pathPatternsRespectSegments() {
+        GlobMatcher matcher = new GlobMatcher(Arrays.asList("raw/*.dng", "logs/**"));
+        assertTrue(matcher.matches("raw/a.dng"));
+        assertFalse(matcher.matches("raw/sub/a.dng"));
+        assertTrue(matcher.matches("logs/a.txt"));
+        assertTrue(matcher.matches("logs/2026/10/a.txt"));
+        assertFalse(matcher.matches("other/logs/a.txt"));
+    }
+
+    @Test
+    public void doubleStarSlashMatchesZeroDirectories() {
+        GlobMatcher matcher = new GlobMatcher(Collections.singletonList("**/thumbs/*"));
+        assertTrue(matcher.matches("thumbs/a.png"));
+        assertTrue(matcher.matches("x/y/thumbs/a.png"));
+        assertFalse(matcher.matches("x/thumbs/y/a.png"));
+    }
+
+    @Test
+    public void bracesQuestionMarkAndLiterals() {
+        GlobMatcher matcher = new GlobMatcher(Arrays.asList("*.{jpg,png}", "clip-??.mp4", "a+b(1).txt"));
+        assertTrue(matcher.matches("x.png"));
+        assertTrue(matcher.matches("x.jpg"));
+        assertFalse(matcher.matches("x.gif"));
+        assertTrue(matcher.matches("clip-01.mp4"));
+        assertFalse(matcher.matches("clip-001.mp4"));
+        assertTrue(matcher.matches("a+b(1).txt"));
+    }
+
+    @Test
+    public void doubleStarSuffixPrunesTheDirectory() {
+        GlobMatcher matcher = new GlobMatcher(Arrays.asList("thumbnails/**", "**/cache/**"));
+        assertTrue(matcher.matchesDirectory("thumbnails"));
+        assertTrue(matcher.matchesDirectory("a/b/cache"));
+        assertTrue(matcher.matches("thumbnails/a.png"));
+        assertFalse(matcher.matches("thumbnails"));
+        assertFalse(matcher.matchesDirectory("photos"));
+        assertFalse(matcher.matchesDirectory("x/thumbnails"));
+    }
+
+    @Test
+    public void emptyMatcher() {
+        GlobMatcher matcher = new GlobMatcher(null);
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches("anything"));
+    }
+}
@@ -11,7 +11,8 @@ public class UploaderPlugin: CAPPlugin, CAPBridgedPlugin {
         CAPPluginMethod(name: "uploadMultipart", returnType: CAPPluginReturnPromise),
         CAPPluginMethod(name: "removeUpload", returnType: CAPPluginReturnPromise),
         CAPPluginMethod(name: "getPluginVersion", returnType: CAPPluginReturnPromise),
-        CAPPluginMethod(name: "acknowledgeEvent", returnType: CAPPluginReturnPromise)
+        CAPPluginMethod(name: "acknowledgeEvent", returnType: CAPPluginReturnPromise),
+        CAPPluginMethod(name: "getPendingEvents", returnType: CAPPluginReturnPromise)
     ]
     private let implementation = Uploader()
 
@@ -28,6 +29,14 @@ public class UploaderPlugin: CAPPlugin, CAPBridgedPlugin {
             call.reject("Missing required parameter: serverUrl")
             return
         }
+        if call.getObject("directory") != nil {
+            call.unimplemented("Directory uploads are not supported on iOS")
+            return
+        }
+        if call.getObject("delta") != nil {
+            call.unimplemented("Delta uploads are not supported on iOS")
+            return
+        }
         if (filePath == nil || filePath?.isEmpty == true) && (files == nil || files?.isEmpty == true) {
             call.reject("Missing required parameter: filePath or files")
             return
@@ -112,6 +121,11 @@ public class UploaderPlugin: CAPPlugin, CAPBridgedPlugin {
         call.resolve()
     }
 
+    @objc func getPendingEvents(_ call: CAPPluginCall) {
+        // Events are not persisted on iOS, so there is never a backlog to page through.
+        call.resolve(["events": []])
+    }
+
     @objc func removeUpload(_ call: CAPPluginCall) {
         guard let id = call.getString("id") else {
             call.reject("Missing required parameter: id")
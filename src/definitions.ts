@@ -32,6 +32,110 @@ export interface UploadFileOption {
   mimeType?: string;
 }
 
+/**
+ * A local directory to upload, one request per matching file.
+ *
+ * Android only.
+ *
+ * @since 8.4.0
+ */
+export interface UploadDirectoryOption {
+  /**
+   * The local directory to enumerate.
+   * Can be a file:// URL or an absolute path.
+   *
+   * @since 8.4.0
+   */
+  path: string;
+
+  /**
+   * Glob patterns a file must match to be uploaded, relative to `path`.
+   * Patterns without a `/` match the file name at any depth (e.g. `*.jpg`).
+   * Supports `*`, `**`, `?` and `{a,b}`. All files are included when omitted.
+   *
+   * @since 8.4.0
+   * @example ['*.{jpg,png}', 'raw/**']
+   */
+  include?: string[];
+
+  /**
+   * Glob patterns for files or directories to skip, relative to `path`.
+   * Excluded directories are not descended into.
+   *
+   * @since 8.4.0
+   * @example ['.*', 'thumbnails/**']
+   */
+  exclude?: string[];
+
+  /**
+   * Whether to descend into subdirectories. Symbolic links to directories are not followed.
+   *
+   * @default false
+   * @since 8.4.0
+   */
+  recursive?: boolean;
+
+  /**
+   * The maximum number of file uploads started from this directory that may run at once.
+   * Enumeration pauses while this many uploads are in flight.
+   *
+   * @default 4
+   * @since 8.4.0
+   */
+  maxConcurrentUploads?: number;
+}
+
+/**
+ * Delta upload settings: send only the blocks that changed since the previous version.
+ *
+ * A block signature of the previous version is taken from `signatureUrl`, or from the local cache
+ * filled by the last successful upload with the same `cacheKey`. The file is then sent to `patchUrl`
+ * as an `application/x-uploader-delta` body made of references to unchanged blocks and the new
+ * bytes; the server rebuilds the file from its copy of the previous version. When no signature is
+ * available the whole file is uploaded to `serverUrl` as usual. The patch and signature formats are
+ * documented in `DeltaEncoder.java` and `DeltaSignature.java`.
+ *
+ * Android only.
+ *
+ * @since 8.4.0
+ */
+export interface UploadDeltaOption {
+  /**
+   * The endpoint that receives the patch, sent with the upload's `method` and `headers`.
+   * Answering `409` or `412` rejects the patch: the cached signature is dropped and the full file
+   * is uploaded to `serverUrl` under the same upload ID.
+   *
+   * @since 8.4.0
+   */
+  patchUrl: string;
+
+  /**
+   * An endpoint returning the signature of the version the server currently has, fetched with
+   * `GET` and the upload's `headers`. Any answer other than `200` falls back to a full upload.
+   * When omitted, the signature cached on the device is used.
+   *
+   * @since 8.4.0
+   */
+  signatureUrl?: string;
+
+  /**
+   * Identifies the file across uploads for the local signature cache.
+   *
+   * @default `patchUrl` and the file path
+   * @since 8.4.0
+   */
+  cacheKey?: string;
+
+  /**
+   * The block size in bytes used for new signatures, between 512 and 1048576.
+   * Smaller blocks find more unchanged data but make signatures larger.
+   *
+   * @default 8192
+   * @since 8.4.0
+   */
+  blockSize?: number;
+}
+
 /**
  * Options for starting a single-file multipart upload.
  *
@@ -75,6 +179,78 @@ export interface UploadMultipartOptions {
   headers?: { [key: string]: string };
 }
 
+/**
+ * Options for opening a streaming upload fed with `writeChunk`.
+ *
+ * @since 8.4.0
+ */
+export interface OpenUploadStreamOptions {
+  /**
+   * The server URL endpoint where the data should be sent.
+   *
+   * @since 8.4.0
+   */
+  serverUrl: string;
+
+  /**
+   * The HTTP method to use for the upload request.
+   *
+   * @default 'POST'
+   * @since 8.4.0
+   */
+  method?: 'PUT' | 'POST';
+
+  /**
+   * HTTP headers to send with the upload request.
+   *
+   * @since 8.4.0
+   */
+  headers?: { [key: string]: string };
+
+  /**
+   * Sent as the `Content-Type` header unless `headers` already sets one.
+   *
+   * @since 8.4.0
+   */
+  mimeType?: string;
+
+  /**
+   * The maximum number of bytes held in native memory before `writeChunk` stops resolving
+   * until the connection has drained earlier chunks.
+   *
+   * @default 4194304
+   * @since 8.4.0
+   */
+  maxBufferedBytes?: number;
+
+  /**
+   * Keep a copy of the sent bytes in the cache directory so the request can be replayed
+   * from the start if the connection drops. Required for `maxRetries` to have any effect.
+   *
+   * @default false
+   * @since 8.4.0
+   */
+  spillToDisk?: boolean;
+
+  /**
+   * The maximum number of bytes kept on disk when `spillToDisk` is enabled.
+   * Once a stream grows past this limit it can no longer be retried.
+   *
+   * @default 67108864
+   * @since 8.4.0
+   */
+  maxSpillBytes?: number;
+
+  /**
+   * The maximum number of times to replay the request after a connection failure. Connecting
+   * and waiting for the server each time out after 30 seconds, which counts as a failure.
+   *
+   * @default 0
+   * @since 8.4.0
+   */
+  maxRetries?: number;
+}
+
 export interface uploadOption {
   /**
    * The local file path of the file to upload.
@@ -98,6 +274,30 @@ export interface uploadOption {
    */
   files?: UploadFileOption[];
 
+  /**
+   * Upload every matching file in a local directory.
+   *
+   * Files are discovered lazily and each one is sent as its own request using the other options
+   * in this object. The returned ID identifies the directory upload: pass it to `removeUpload` to
+   * stop enumeration and cancel in-flight uploads. Per-file events carry it as `directoryId`, and
+   * `'enumerating'` events report discovery progress.
+   *
+   * Android only.
+   *
+   * @since 8.4.0
+   */
+  directory?: UploadDirectoryOption;
+
+  /**
+   * Upload only what changed since the previous version of the file.
+   * Requires a single file and cannot be combined with `directory`.
+   *
+   * Android only.
+   *
+   * @since 8.4.0
+   */
+  delta?: UploadDeltaOption;
+
   /**
    * The server URL endpoint where the file should be uploaded.
    *
@@ -198,10 +398,11 @@ export interface UploadEvent {
    * - 'uploading': Upload is in progress
    * - 'completed': Upload finished successfully
    * - 'failed': Upload encountered an error
+   * - 'enumerating': A directory upload discovered more files (Android only)
    *
    * @since 0.0.1
    */
-  name: 'uploading' | 'completed' | 'failed';
+  name: 'uploading' | 'completed' | 'failed' | 'enumerating';
 
   /**
    * Additional data about the upload event.
@@ -232,6 +433,38 @@ export interface UploadEvent {
      * @since 0.0.1
      */
     statusCode?: number;
+
+    /**
+     * Number of files discovered so far by a directory upload.
+     * Only present during 'enumerating' events.
+     *
+     * @since 8.4.0
+     */
+    discoveredFiles?: number;
+
+    /**
+     * Total size in bytes of the files discovered so far by a directory upload.
+     * Only present during 'enumerating' events.
+     *
+     * @since 8.4.0
+     */
+    discoveredBytes?: number;
+
+    /**
+     * Whether directory enumeration has finished.
+     * Only present during 'enumerating' events.
+     *
+     * @since 8.4.0
+     */
+    done?: boolean;
+
+    /**
+     * The file that could not be uploaded.
+     * Only present on 'failed' events of a directory upload when a file upload could not be started.
+     *
+     * @since 8.4.0
+     */
+    filePath?: string;
   };
 
   /**
@@ -250,6 +483,56 @@ export interface UploadEvent {
    * @since 0.0.2
    */
   eventId?: string;
+
+  /**
+   * The directory upload ID returned by `startUpload` when this upload was started from a `directory`.
+   *
+   * @since 8.4.0
+   */
+  directoryId?: string;
+}
+
+/**
+ * Options for reading persisted events page by page.
+ *
+ * @since 8.4.0
+ */
+export interface GetPendingEventsOptions {
+  /**
+   * The maximum number of events to return.
+   *
+   * @default 50
+   * @since 8.4.0
+   */
+  limit?: number;
+
+  /**
+   * The `next` cursor returned by the previous call. Starts from the oldest event when omitted.
+   *
+   * @since 8.4.0
+   */
+  after?: string;
+}
+
+/**
+ * A page of persisted events.
+ *
+ * @since 8.4.0
+ */
+export interface PendingEventsResult {
+  /**
+   * Unacknowledged 'completed' and 'failed' events, oldest first.
+   *
+   * @since 8.4.0
+   */
+  events: UploadEvent[];
+
+  /**
+   * Cursor for the following page. Absent when there are no more events.
+   *
+   * @since 8.4.0
+   */
+  next?: string;
 }
 
 /**
@@ -351,6 +634,57 @@ export interface UploaderPlugin {
    */
   uploadMultipart(options: UploadMultipartOptions): Promise<{ id: string }>;
 
+  /**
+   * Open an upload whose body is written from JavaScript with `writeChunk`.
+   *
+   * Bytes are sent as they arrive using chunked transfer encoding, so app-generated data
+   * does not have to be written to a file first. Android only.
+   *
+   * @param options - Configuration for the streaming upload
+   * @returns Promise that resolves with the stream ID
+   * @since 8.4.0
+   * @example
+   * ```typescript
+   * const { id } = await Uploader.openUploadStream({
+   *   serverUrl: 'https://example.com/recordings',
+   *   mimeType: 'audio/webm',
+   * });
+   * for await (const chunk of recorder) {
+   *   await Uploader.writeChunk({ id, data: toBase64(chunk) });
+   * }
+   * const { statusCode } = await Uploader.finishUploadStream({ id });
+   * ```
+   */
+  openUploadStream(options: OpenUploadStreamOptions): Promise<{ id: string }>;
+
+  /**
+   * Append base64-encoded data to a streaming upload.
+   *
+   * The promise resolves once the chunk fits in the stream's memory budget. Awaiting each call
+   * before writing the next one keeps native memory bounded by `maxBufferedBytes`.
+   * Android only.
+   *
+   * @param options - The stream ID and the base64-encoded chunk
+   * @returns Promise that resolves with the bytes currently buffered and the space left
+   * @throws Error if the stream is unknown, finished or has failed
+   * @since 8.4.0
+   */
+  writeChunk(options: { id: string; data: string }): Promise<{ bufferedBytes: number; availableBytes: number }>;
+
+  /**
+   * Mark a streaming upload as complete and wait for the server response.
+   *
+   * A 'completed' or 'failed' event is also emitted for the stream ID. Use `removeUpload`
+   * to abort a stream instead; a pending call then rejects and a 'failed' event is emitted.
+   * Android only.
+   *
+   * @param options - The stream ID
+   * @returns Promise that resolves with the HTTP status code and the number of bytes sent
+   * @throws Error if the upload fails or is removed
+   * @since 8.4.0
+   */
+  finishUploadStream(options: { id: string }): Promise<{ statusCode: number; bytesSent: number }>;
+
   /**
    * Cancel and remove an ongoing upload.
    *
@@ -403,7 +737,9 @@ export interface UploaderPlugin {
    * Completed and failed events are stored in the plugin's persistent cache so they can be
    * re-delivered if the app is closed or backgrounded before the event is processed.
    * Call this method after successfully handling a 'completed' or 'failed' event to prevent
-   * it from being re-broadcast the next time the plugin initialises.
+   * it from being re-broadcast. Unacknowledged events are replayed once per plugin instance, when
+   * the first 'events' listener is added; a WebView reload does not replay them again, so use
+   * `getPendingEvents` to read them after that.
    *
    * Progress ('uploading') events do not have an eventId and do not need to be acknowledged.
    *
@@ -424,6 +760,33 @@ export interface UploaderPlugin {
    */
   acknowledgeEvent(options: { eventId: string }): Promise<void>;
 
+  /**
+   * Read unacknowledged 'completed' and 'failed' events in pages.
+   *
+   * Persisted events are also replayed in the background once, when the first 'events' listener
+   * is added. This method lets the app drain a large backlog at its own pace instead, for example
+   * after startup work is done. Events acknowledged between calls do not invalidate the cursor.
+   *
+   * Returns no events on iOS and web, which do not persist events.
+   *
+   * @param options - Page size and cursor
+   * @returns Promise that resolves with a page of events and the cursor for the next one
+   * @since 8.4.0
+   * @example
+   * ```typescript
+   * let after: string | undefined;
+   * do {
+   *   const page = await Uploader.getPendingEvents({ limit: 100, after });
+   *   for (const event of page.events) {
+   *     await handleUploadResult(event);
+   *     await Uploader.acknowledgeEvent({ eventId: event.eventId! });
+   *   }
+   *   after = page.next;
+   * } while (after);
+   * ```
+   */
+  getPendingEvents(options?: GetPendingEventsOptions): Promise<PendingEventsResult>;
+
   /**
    * Get the native Capacitor plugin version.
    *
@@ -2,7 +2,15 @@ import { WebPlugin } from '@capacitor/core';
 import { openDB } from 'idb';
 
 import { PathHelper } from './PathHelper';
-import type { UploadFileOption, UploadMultipartOptions, UploaderPlugin, uploadOption } from './definitions';
+import type {
+  GetPendingEventsOptions,
+  OpenUploadStreamOptions,
+  PendingEventsResult,
+  UploadFileOption,
+  UploadMultipartOptions,
+  UploaderPlugin,
+  uploadOption,
+} from './definitions';
 
 export class UploaderWeb extends WebPlugin implements UploaderPlugin {
   private uploads: Map<string, { controller: AbortController; retries: number }> = new Map();
@@ -10,6 +18,14 @@ export class UploaderWeb extends WebPlugin implements UploaderPlugin {
   async startUpload(options: uploadOption): Promise<{ id: string }> {
     console.log('startUpload', options);
 
+    if (options.directory) {
+      throw this.unimplemented('Directory uploads are not supported on web.');
+    }
+
+    if (options.delta) {
+      throw this.unimplemented('Delta uploads are not supported on web.');
+    }
+
     const id = Math.random().toString(36).substring(2, 15);
     const controller = new AbortController();
     const maxRetries = options.maxRetries || 3;
@@ -32,6 +48,18 @@ export class UploaderWeb extends WebPlugin implements UploaderPlugin {
     });
   }
 
+  async openUploadStream(_options: OpenUploadStreamOptions): Promise<{ id: string }> {
+    throw this.unimplemented('Streaming uploads are not supported on web.');
+  }
+
+  async writeChunk(_options: { id: string; data: string }): Promise<{ bufferedBytes: number; availableBytes: number }> {
+    throw this.unimplemented('Streaming uploads are not supported on web.');
+  }
+
+  async finishUploadStream(_options: { id: string }): Promise<{ statusCode: number; bytesSent: number }> {
+    throw this.unimplemented('Streaming uploads are not supported on web.');
+  }
+
   async removeUpload(options: { id: string }): Promise<void> {
     console.log('removeUpload', options);
     const upload = this.uploads.get(options.id);
@@ -190,6 +218,10 @@ export class UploaderWeb extends WebPlugin implements UploaderPlugin {
     // Web uploads run in-process; events are not persisted for replay.
   }
 
+  async getPendingEvents(_options?: GetPendingEventsOptions): Promise<PendingEventsResult> {
+    return { events: [] };
+  }
+
   async getPluginVersion(): Promise<{ version: string }> {
     return { version: 'web' };
   }